@@ -0,0 +1,31 @@
+package editor.benchmarks;
+
+import editor.Caret;
+import editor.TextStorage;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** An opened document of 1 KB to 100 MB with a caret. */
+@State(Scope.Thread)
+public class DocumentState {
+    @Param({"1", "1024", "102400"})
+    public int sizeKb;
+
+    public String contents;
+    public TextStorage buffer;
+    public Caret caret;
+
+    @Setup(Level.Trial)
+    public void open() {
+        contents = Documents.generate(sizeKb*1024);
+        buffer = Documents.open(contents);
+        caret = new Caret(buffer);
+    }
+
+    public int length() {
+        return buffer.snapshot().length();
+    }
+}
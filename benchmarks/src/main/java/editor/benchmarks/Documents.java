@@ -0,0 +1,52 @@
+package editor.benchmarks;
+
+import editor.FixedWidthMetrics;
+import editor.TextStorage;
+import java.util.Random;
+
+/** Documents makes the text the benchmarks work on: paragraphs of random lowercase words,
+* the same for every run of a given size. */
+public class Documents {
+    static final double WINDOW_WIDTH = 800;
+    static final double WINDOW_HEIGHT = 600;
+    static final int VISIBLE_LINES = 40;    //about as many lines as the window shows
+
+    public static String generate(int length) {
+        /* Words of 1 to 10 letters, with a newline instead of a space now and then */
+        Random random = new Random(length);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            int word = 1 + random.nextInt(10);
+            for (int i = 0; i < word; i++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            sb.append(random.nextInt(40) == 0 ? '\n' : ' ');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    public static String generateLine(int length) {
+        /* One line with no spaces, like minified code or base64, which wraps anywhere */
+        Random random = new Random(length);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    public static TextStorage open(CharSequence contents) {
+        /* Loads the text and wraps what a freshly opened window would show */
+        TextStorage buffer = new TextStorage(5, 0, new FixedWidthMetrics());
+        buffer.loadText(contents);
+        buffer.reformatText(WINDOW_WIDTH, WINDOW_HEIGHT);
+        buffer.layoutLines(0, VISIBLE_LINES);
+        return buffer;
+    }
+
+    public static void render(TextStorage buffer, int firstLine) {
+        /* Does the work of the Viewport, without drawing */
+        buffer.layoutLines(firstLine, firstLine + VISIBLE_LINES);
+    }
+}
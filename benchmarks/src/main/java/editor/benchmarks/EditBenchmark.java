@@ -0,0 +1,150 @@
+package editor.benchmarks;
+
+import editor.Caret;
+import editor.TextStorage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Typing and backspacing, each followed by the reformat and cursor update that Editor
+* does after a key press. typeBurst types the way Editor does when keys come in faster
+* than frames, with everything typed during a frame inserted and reformatted at once.
+* appendFollowed adds what a log growing by 50 MB a minute gets between two looks at it, the
+* way Editor does for a followed file. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class EditBenchmark {
+    private static final int BURST = 32;    //backspaces in a row, or characters typed during one frame
+    private static final String TYPED = "the quick brown fox jumps over the lazy dog\n";
+    private static final String PASTED = Documents.generate(1 << 20);
+    private int count;          //characters typed in this iteration
+    private int middle;         //where typing in the middle began in this iteration
+    private static final String LOGGED = logLines(210 << 10);
+
+    /** A document that grows at the end, opened again for every iteration so its size stays about the same */
+    @State(Scope.Thread)
+    public static class Followed {
+        TextStorage buffer;
+
+        @Setup(Level.Iteration)
+        public void open(DocumentState doc) {
+            buffer = Documents.open(doc.contents);
+        }
+    }
+
+    private static String logLines(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append("2016-04-01 12:00:00.000 INFO [worker-").append(i%16).append("] request ").append(i)
+                    .append(" served in ").append(i%997).append(" ms\n");
+        }
+        return sb.toString();
+    }
+
+    @Setup(Level.Iteration)
+    public void startTyping(DocumentState doc) {
+        count = 0;
+        middle = doc.length()/2;
+    }
+
+    private double type(DocumentState doc, int offset) {
+        /* Types words rather than one letter, a single word thousands of letters long wraps differently */
+        TextStorage buffer = doc.buffer;
+        buffer.moveTo(offset);
+        buffer.addCharToTextStorage(String.valueOf(TYPED.charAt(count%TYPED.length())));
+        count += 1;
+        buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+        buffer.clearRedo();
+        doc.caret.place(Caret.Placement.AFTER);
+        return doc.caret.y();
+    }
+
+    @Benchmark
+    public double typeAtStart(DocumentState doc) {
+        return type(doc, count);
+    }
+
+    @Benchmark
+    public double typeInMiddle(DocumentState doc) {
+        return type(doc, middle + count);
+    }
+
+    @Benchmark
+    public double typeAtEnd(DocumentState doc) {
+        return type(doc, doc.length());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public double typeBurst(DocumentState doc) {
+        TextStorage buffer = doc.buffer;
+        buffer.moveTo(middle + count);
+        StringBuilder typed = new StringBuilder(BURST);
+        for (int i = 0; i < BURST; i++) {
+            typed.append(TYPED.charAt((count + i)%TYPED.length()));
+        }
+        count += BURST;
+        buffer.typeText(typed.toString());
+        buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+        buffer.clearRedo();
+        doc.caret.place(Caret.Placement.AFTER);
+        return doc.caret.y();
+    }
+
+    @Benchmark
+    public double paste(DocumentState doc) {
+        /* Pastes a megabyte in the middle, then undoes it so the document keeps its size */
+        TextStorage buffer = doc.buffer;
+        buffer.moveTo(doc.length()/2);
+        buffer.insertTextAtCursor(PASTED);
+        buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+        doc.caret.place(Caret.Placement.AFTER);
+        double y = doc.caret.y();
+        buffer.undoAction();
+        buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+        buffer.clearRedo();
+        return y;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public double backspaceBurst(DocumentState doc) {
+        /* The burst is one merged edit, so a single undo puts the text back for the next invocation */
+        TextStorage buffer = doc.buffer;
+        buffer.moveTo(Math.min(doc.length(), doc.length()/2 + BURST));
+        for (int i = 0; i < BURST; i++) {
+            buffer.deleteCharFromTextStorage();
+            buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+            doc.caret.place(Caret.Placement.AFTER);
+        }
+        buffer.clearRedo();
+        buffer.undoAction();
+        buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+        return doc.caret.y();
+    }
+
+    @Benchmark
+    public int appendFollowed(Followed followed) {
+        /* The cursor stays at the end, so the window shows the last lines */
+        TextStorage buffer = followed.buffer;
+        buffer.appendText(LOGGED);
+        buffer.moveTo(buffer.snapshot().length());
+        buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+        Documents.render(buffer, buffer.lineCount() - Documents.VISIBLE_LINES);
+        return buffer.lineCount();
+    }
+}
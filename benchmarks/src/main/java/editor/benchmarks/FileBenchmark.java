@@ -0,0 +1,160 @@
+package editor.benchmarks;
+
+import editor.EditJournal;
+import editor.FileSaver;
+import editor.FixedWidthMetrics;
+import editor.TextEncoding;
+import editor.TextStorage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Opening a file the way Editor.readFile does, as ASCII that is shown straight from the
+* mapped file and as UTF-8 that has to be decoded, recovering the edits in its EditJournal,
+* and saving with FileSaver until the file is renamed into place. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class FileBenchmark {
+    private static final int JOURNALED_EDITS = 100000;
+    private static final String TYPED = "the quick brown fox jumps over the lazy dog\n";
+    private File input;
+    private File utf8Input;     //the same words with every e written as an accented e
+    private File output;
+    private FileSaver saver;
+
+    @Setup(Level.Trial)
+    public void writeInput(DocumentState doc) throws IOException {
+        input = File.createTempFile("editor-benchmark", ".txt");
+        output = File.createTempFile("editor-benchmark-saved", ".txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(input), StandardCharsets.ISO_8859_1);
+        try {
+            writer.write(doc.contents);
+        } finally {
+            writer.close();
+        }
+        utf8Input = File.createTempFile("editor-benchmark-utf8", ".txt");
+        writer = new OutputStreamWriter(new FileOutputStream(utf8Input), StandardCharsets.UTF_8);
+        try {
+            writer.write(doc.contents.replace('e', '\u00e9'));
+        } finally {
+            writer.close();
+        }
+        writeJournal(doc);
+        saver = new FileSaver(new Executor() {
+            @Override
+            public void execute(Runnable r) {
+                r.run();
+            }
+        });
+    }
+
+    private void writeJournal(DocumentState doc) throws IOException {
+        /* Types a sentence at a time at 100 places through the document, as if the editor crashed afterwards */
+        TextStorage buffer = Documents.open(doc.contents);
+        EditJournal journal = EditJournal.open(input, buffer);
+        for (int i = 0; i < JOURNALED_EDITS; i++) {
+            if (i%(JOURNALED_EDITS/100) == 0) {
+                buffer.moveTo((int) ((long) buffer.snapshot().length()*(i/(JOURNALED_EDITS/100))/100));
+            }
+            buffer.addCharToTextStorage(String.valueOf(TYPED.charAt(i%TYPED.length())));
+        }
+        journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        EditJournal.journalOf(input.getPath()).delete();
+        input.delete();
+        utf8Input.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        return open(input);
+    }
+
+    @Benchmark
+    public int openUtf8() throws IOException {
+        return open(utf8Input);
+    }
+
+    private int open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            TextStorage buffer = Documents.open(TextEncoding.decode(contents).text);
+            return buffer.lineCount();
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        /* Opens the file and replays the journal before the first reformat, like Editor.start */
+        FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            TextStorage buffer = new TextStorage(5, 0, new FixedWidthMetrics());
+            buffer.loadText(TextEncoding.decode(contents).text);
+            EditJournal journal = EditJournal.open(input, buffer);
+            journal.close();
+            buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+            buffer.layoutLines(0, Documents.VISIBLE_LINES);
+            return journal.recovered();
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public String save(DocumentState doc) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] result = new String[1];
+        saver.save(doc.buffer.snapshot(), output.getPath(), TextEncoding.UTF_8, new FileSaver.Listener() {
+            @Override
+            public void progress(double fraction) {
+            }
+
+            @Override
+            public void saved(String fileName) {
+                result[0] = fileName;
+                done.countDown();
+            }
+
+            @Override
+            public void failed(String fileName, IOException exception) {
+                result[0] = exception.toString();
+                done.countDown();
+            }
+        });
+        done.await();
+        return result[0];
+    }
+}
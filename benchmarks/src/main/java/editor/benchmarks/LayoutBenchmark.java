@@ -0,0 +1,64 @@
+package editor.benchmarks;
+
+import editor.TextStorage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Wrapping the document again after the window is resized or the font is zoomed, up to
+* the point where the window can be drawn, and a 5 MB document of one line with no spaces
+* wrapped again after a resize. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class LayoutBenchmark {
+    private boolean wide;   //flips every invocation so that every call changes the layout
+
+    @Benchmark
+    public int resizeReflow(DocumentState doc) {
+        wide = !wide;
+        double width = wide ? Documents.WINDOW_WIDTH + 200 : Documents.WINDOW_WIDTH;
+        doc.buffer.reformatText(width, Documents.WINDOW_HEIGHT);
+        Documents.render(doc.buffer, 0);
+        return doc.buffer.lineCount();
+    }
+
+    @Benchmark
+    public int fontZoom(DocumentState doc) {
+        wide = !wide;
+        doc.buffer.changeFontSize(wide ? 4 : -4);
+        doc.buffer.reformatText(Documents.WINDOW_WIDTH, Documents.WINDOW_HEIGHT);
+        Documents.render(doc.buffer, 0);
+        return doc.buffer.lineCount();
+    }
+
+    @State(Scope.Thread)
+    public static class LongLine {
+        TextStorage buffer;
+
+        @Setup
+        public void open() {
+            buffer = Documents.open(Documents.generateLine(5*1024*1024));
+        }
+    }
+
+    @Benchmark
+    public int resizeLongLine(LongLine line) {
+        wide = !wide;
+        double width = wide ? Documents.WINDOW_WIDTH + 200 : Documents.WINDOW_WIDTH;
+        line.buffer.reformatText(width, Documents.WINDOW_HEIGHT);
+        Documents.render(line.buffer, 0);
+        return line.buffer.lineCount();
+    }
+}
@@ -0,0 +1,40 @@
+package editor.benchmarks;
+
+import editor.Caret;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Moving the cursor up and down in the middle of the document, which hit-tests the line
+* above or below with moveToClosestNode. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class NavigationBenchmark {
+    @Setup(Level.Iteration)
+    public void placeInMiddle(DocumentState doc) {
+        doc.buffer.moveTo(doc.length()/2);
+        doc.caret.place(Caret.Placement.AFTER);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public double downAndUp(DocumentState doc) {
+        doc.caret.moveDown();
+        doc.caret.moveUp();
+        return doc.caret.x();
+    }
+}
@@ -0,0 +1,110 @@
+package editor;
+
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.randomText;
+import static editor.TestSupport.text;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Edits journaled by an EditJournal, replayed over the file they were made for, as when the
+* editor is started again after a crash. A record that was cut short is dropped, and so is a
+* journal made for another version of the file. */
+public class EditJournalTest {
+    private static final String ALPHABET = "abc \né中";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static TextStorage load(File file) throws IOException {
+        return newBuffer(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private File journaledEdits(Random random, final ArrayList<String> texts) throws IOException {
+        /* Makes random edits of a new file through a journal, adding the text after each record to texts */
+        File base = folder.newFile("document.txt");
+        Files.write(base.toPath(), randomText(random, ALPHABET, 1000).getBytes(StandardCharsets.UTF_8));
+        final TextStorage buffer = load(base);
+        EditJournal journal = EditJournal.open(base, buffer);
+        buffer.addEditListener(new TextStorage.EditListener() {
+            @Override
+            public void edited(int offset, int removed, CharSequence inserted) {
+                texts.add(text(buffer));
+            }
+        });
+        for (int i = 0; i < 300; i++) {
+            int length = buffer.snapshot().length();
+            buffer.clearSelection();
+            buffer.moveTo(random.nextInt(length + 1));
+            switch (random.nextInt(4)) {
+                case 0:
+                    buffer.addCharToTextStorage(randomText(random, ALPHABET, 1));
+                    break;
+                case 1:
+                    buffer.insertTextAtCursor(randomText(random, ALPHABET, random.nextInt(50)));
+                    break;
+                case 2:
+                    buffer.startSelection();
+                    buffer.moveTo(buffer.getCurrentPos() - random.nextInt(20));
+                    buffer.deleteSelection();
+                    break;
+                default:
+                    buffer.startSelection();
+                    buffer.moveTo(buffer.getCurrentPos() - random.nextInt(20));
+                    buffer.replaceSelection(randomText(random, ALPHABET, random.nextInt(10)));
+            }
+            if (random.nextInt(10) == 0) {
+                buffer.undoAction();
+            }
+        }
+        journal.close();
+        return base;
+    }
+
+    @Test
+    public void replayGivesTheEditedText() throws IOException {
+        ArrayList<String> texts = new ArrayList<String>();
+        File base = journaledEdits(new Random(6), texts);
+        TextStorage recovered = load(base);
+        EditJournal journal = EditJournal.open(base, recovered);
+        journal.close();
+        assertEquals(texts.size(), journal.recovered());
+        assertEquals(texts.get(texts.size() - 1), text(recovered));
+    }
+
+    @Test
+    public void recordCutShortIsDropped() throws IOException {
+        ArrayList<String> texts = new ArrayList<String>();
+        File base = journaledEdits(new Random(7), texts);
+        File journalFile = EditJournal.journalOf(base.getPath());
+        RandomAccessFile cut = new RandomAccessFile(journalFile, "rw");
+        cut.setLength(cut.length() - 1);
+        cut.close();
+        TextStorage recovered = load(base);
+        EditJournal journal = EditJournal.open(base, recovered);
+        journal.close();
+        assertEquals(texts.size() - 1, journal.recovered());
+        assertEquals(texts.get(texts.size() - 2), text(recovered));
+    }
+
+    @Test
+    public void journalOfAnotherVersionIsIgnored() throws IOException {
+        ArrayList<String> texts = new ArrayList<String>();
+        File base = journaledEdits(new Random(8), texts);
+        Files.write(base.toPath(), "saved by another program".getBytes(StandardCharsets.UTF_8));
+        TextStorage recovered = load(base);
+        EditJournal journal = EditJournal.open(base, recovered);
+        journal.close();
+        assertEquals(0, journal.recovered());
+        assertEquals("saved by another program", text(recovered));
+    }
+}
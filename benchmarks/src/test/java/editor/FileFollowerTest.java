@@ -0,0 +1,124 @@
+package editor;
+
+import static editor.TestSupport.randomText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** A FileFollower reading a file that the test appends to in pieces, which end anywhere, even
+* inside a character. Its callbacks run on the test thread. */
+public class FileFollowerTest {
+    private static final String ALPHABET = "ab \né中😀";  //the last two make one emoji
+    private static final long POLLS = 1000;     //milliseconds that are sure to hold a few polls
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestSupport.Callbacks callbacks = new TestSupport.Callbacks();
+    private final StringBuilder appended = new StringBuilder();
+    private int truncations = 0;
+    private FileFollower follower;
+
+    @After
+    public void stopFollowing() {
+        if (follower != null) {
+            follower.stop();
+        }
+    }
+
+    private FileFollower follow(File file) {
+        follower = new FileFollower(file, file.length(), TextEncoding.UTF_8, callbacks, new FileFollower.Listener() {
+            @Override
+            public void appended(CharSequence text) {
+                appended.append(text);
+            }
+
+            @Override
+            public void truncated() {
+                truncations += 1;
+            }
+        });
+        return follower;
+    }
+
+    private static void append(File file, byte[] bytes, int from, int to) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(bytes, from, to - from);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void runWhatIsQueued() throws InterruptedException {
+        /* Waits for any poll that is on its way, then runs the callbacks it made */
+        Thread.sleep(POLLS);
+        while (!callbacks.isEmpty()) {
+            callbacks.runNext();
+        }
+    }
+
+    @Test
+    public void readsWhatIsAppended() throws IOException, InterruptedException {
+        /* A character cut in two by a write comes out whole after the next one */
+        Random random = new Random(23);
+        File file = folder.newFile("log.txt");
+        append(file, "before\n".getBytes(StandardCharsets.UTF_8), 0, 7);
+        follow(file);
+        String text = randomText(random, ALPHABET, 20000);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int from = 0; from < bytes.length; ) {
+            // Each piece but the last ends after the first byte of a character, and is read before the next is written
+            int to = Math.min(bytes.length, from + 1000 + random.nextInt(5000));
+            while (to < bytes.length && (bytes[to - 1] & 0xc0) != 0xc0) {
+                to += 1;
+            }
+            append(file, bytes, from, to);
+            from = to;
+            callbacks.runNext();
+        }
+        while (appended.length() < text.length()) {
+            callbacks.runNext();
+        }
+        assertEquals(text, appended.toString());
+    }
+
+    @Test
+    public void aFileThatGotShorterIsReportedOnce() throws IOException, InterruptedException {
+        File file = folder.newFile("rotated.txt");
+        append(file, "one\ntwo\n".getBytes(StandardCharsets.UTF_8), 0, 8);
+        follow(file);
+        RandomAccessFile rotated = new RandomAccessFile(file, "rw");
+        rotated.setLength(0);
+        rotated.close();
+        callbacks.runNext();
+        assertEquals(1, truncations);
+        append(file, "three\n".getBytes(StandardCharsets.UTF_8), 0, 6);
+        runWhatIsQueued();
+        assertEquals(1, truncations);
+        assertEquals("", appended.toString());
+    }
+
+    @Test
+    public void nothingIsReportedAfterStop() throws IOException, InterruptedException {
+        File file = folder.newFile("stopped.txt");
+        follow(file);
+        append(file, "read, maybe\n".getBytes(StandardCharsets.UTF_8), 0, 12);
+        follower.stop();
+        runWhatIsQueued();
+        append(file, "not read\n".getBytes(StandardCharsets.UTF_8), 0, 9);
+        runWhatIsQueued();
+        assertEquals("", appended.toString());
+        assertTrue(callbacks.isEmpty());
+    }
+}
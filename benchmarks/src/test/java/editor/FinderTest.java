@@ -0,0 +1,88 @@
+package editor;
+
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.randomText;
+import static editor.TestSupport.text;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/** The matches of a Finder, checked against every offset where indexOf finds the pattern,
+* after a search and after edits made while it runs or after it has finished. */
+public class FinderTest {
+    private static final String ALPHABET = "ab\n";
+
+    private final TestSupport.Callbacks callbacks = new TestSupport.Callbacks();
+
+    private static int[] indexOfMatches(String text, String pattern) {
+        /* Matches may overlap, so the next one is looked for from the character after the last */
+        int[] matches = new int[text.length()];
+        int count = 0;
+        for (int at = text.indexOf(pattern); at != -1; at = text.indexOf(pattern, at + 1)) {
+            matches[count] = at;
+            count += 1;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private static int[] matches(Finder finder) {
+        int[] matches = new int[finder.count()];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = finder.match(i);
+        }
+        return matches;
+    }
+
+    private void finish(Finder finder) throws InterruptedException {
+        while (finder.isSearching()) {
+            callbacks.runNext();
+        }
+    }
+
+    private static void edit(Random random, TextStorage buffer) {
+        /* Short inserts and deletes, which make and break matches around them */
+        int length = buffer.snapshot().length();
+        buffer.clearSelection();
+        buffer.moveTo(random.nextInt(length + 1));
+        if (random.nextBoolean()) {
+            buffer.insertTextAtCursor(randomText(random, ALPHABET, 1 + random.nextInt(6)));
+        } else {
+            buffer.startSelection();
+            buffer.moveTo(buffer.getCurrentPos() + 1 + random.nextInt(6));
+            buffer.deleteSelection();
+        }
+    }
+
+    @Test
+    public void matchesFollowTheEdits() throws InterruptedException {
+        /* Every tenth document is long enough to be searched in several steps */
+        Random random = new Random(5);
+        Finder.Listener ignored = new Finder.Listener() {
+            @Override
+            public void found(int count) {
+            }
+
+            @Override
+            public void finished(int count) {
+            }
+        };
+        for (int round = 0; round < 100; round++) {
+            TextStorage buffer = newBuffer(randomText(random, ALPHABET, random.nextInt(round%10 == 0 ? 3000000 : 3000)));
+            Finder finder = new Finder(buffer, callbacks);
+            buffer.addEditListener(finder);
+            String pattern = randomText(random, ALPHABET, 1 + random.nextInt(4));
+            finder.find(pattern, ignored);
+            for (int edits = random.nextInt(3); edits > 0; edits--) {
+                edit(random, buffer);
+            }
+            finish(finder);
+            assertArrayEquals("round " + round, indexOfMatches(text(buffer), pattern), matches(finder));
+            for (int i = 0; i < 20; i++) {
+                edit(random, buffer);
+                assertArrayEquals("round " + round + " edit " + i, indexOfMatches(text(buffer), pattern), matches(finder));
+            }
+        }
+    }
+}
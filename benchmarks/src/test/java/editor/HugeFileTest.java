@@ -0,0 +1,106 @@
+package editor;
+
+import static editor.TestSupport.randomText;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Lines of a HugeFile looked up in its index, checked against the lines of the same text
+* split at every newline. The larger file has more lines than the index keeps, so it is
+* thinned out, and lines longer than HugeFile.MAX_LINE_BYTES between the short ones. */
+public class HugeFileTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestSupport.Callbacks callbacks = new TestSupport.Callbacks();
+
+    private HugeFile indexed(String text) throws IOException, InterruptedException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        final HugeFile hugeFile = new HugeFile(file);
+        final long[] found = {-1};
+        hugeFile.index(callbacks, new HugeFile.Listener() {
+            @Override
+            public void indexed(long lines, double fraction) {
+            }
+
+            @Override
+            public void finished(long lines) {
+                found[0] = lines;
+            }
+        });
+        while (found[0] == -1) {
+            callbacks.runNext();
+        }
+        assertEquals(hugeFile.lineCount(), found[0]);
+        return hugeFile;
+    }
+
+    private static ArrayList<Integer> lineStarts(String text) {
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < text.length(); i++) {
+            if (i == 0 || text.charAt(i - 1) == '\n') {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+
+    private static String lineText(String text, int start) {
+        /* Up to MAX_LINE_BYTES of it, which are characters too in ASCII */
+        int end = text.indexOf('\n', start);
+        end = Math.min(end == -1 ? text.length() : end, start + HugeFile.MAX_LINE_BYTES);
+        String line = text.substring(start, end);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private static void assertLinesMatch(HugeFile hugeFile, String text, Random random) {
+        /* Every line start, from the index and from the line before, and windows of lines at random */
+        ArrayList<Integer> starts = lineStarts(text);
+        assertEquals(starts.size(), hugeFile.lineCount());
+        for (int line = 0; line < starts.size(); line++) {
+            long start = starts.get(line);
+            assertEquals("line " + line, start, hugeFile.lineStart(line));
+            long next = line + 1 < starts.size() ? starts.get(line + 1) : text.length();
+            assertEquals("line " + line, next, hugeFile.nextLineStart(line + 1, start));
+        }
+        for (int i = 0; i < 200 && !starts.isEmpty(); i++) {
+            int first = random.nextInt(starts.size());
+            String[] expected = new String[Math.min(40, starts.size() - first)];
+            for (int j = 0; j < expected.length; j++) {
+                expected[j] = lineText(text, starts.get(first + j));
+            }
+            assertArrayEquals("line " + first, expected, hugeFile.lines(first, 40));
+        }
+    }
+
+    @Test
+    public void smallFilesKeepEveryLine() throws IOException, InterruptedException {
+        Random random = new Random(24);
+        for (int round = 0; round < 50; round++) {
+            String text = randomText(random, round%2 == 0 ? "ab\n\r" : "abcdefghijklmnopqrstuvwxyz\n", random.nextInt(6000));
+            assertLinesMatch(indexed(text), text, random);
+        }
+    }
+
+    @Test
+    public void manyLinesAreThinnedOut() throws IOException, InterruptedException {
+        /* About a million lines, some of them tens of kilobytes long */
+        Random random = new Random(25);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 8000000) {
+            int length = random.nextInt(5000) == 0 ? 10000 + random.nextInt(50000) : random.nextInt(12);
+            text.append(randomText(random, "abc \r", length)).append('\n');
+        }
+        assertLinesMatch(indexed(text.toString()), text.toString(), random);
+    }
+}
@@ -0,0 +1,120 @@
+package editor;
+
+import static editor.TestSupport.HEIGHT;
+import static editor.TestSupport.assertLayoutFromScratch;
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.randomText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Test;
+
+/** A LayoutWorker wrapping the pending runs of a document in the background, with the test
+* thread running its callbacks. A job that an edit or a new width made stale is never applied. */
+public class LayoutWorkerTest {
+    private static final double WIDTH = 200;
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final TestSupport.Callbacks callbacks = new TestSupport.Callbacks();
+    private final LayoutWorker worker = new LayoutWorker(pool, callbacks);
+    private final ArrayList<LayoutWorker.Result> results = new ArrayList<LayoutWorker.Result>();
+    private final LayoutWorker.Listener listener = new LayoutWorker.Listener() {
+        @Override
+        public void finished(LayoutWorker.Result result) {
+            results.add(result);
+        }
+    };
+
+    @After
+    public void shutDown() {
+        pool.shutdownNow();
+    }
+
+    private static TextStorage longBuffer(long seed) {
+        TextStorage buffer = newBuffer(randomText(new Random(seed), TextStorageTest.ALPHABET, 300000));
+        buffer.reformatText(WIDTH, HEIGHT);
+        assertNotNull(buffer.pendingLayout());
+        return buffer;
+    }
+
+    @Test
+    public void wrapsThePendingRuns() throws InterruptedException {
+        /* The characters are measured on the callback thread, then the lines are handed over */
+        TextStorage buffer = longBuffer(1);
+        worker.start(buffer, listener);
+        callbacks.runNext();
+        callbacks.runNext();
+        assertEquals(1, results.size());
+        assertFalse(worker.isRunning());
+        assertTrue(results.get(0).apply());
+        assertNull(buffer.pendingLayout());
+        assertLayoutFromScratch(buffer, WIDTH, "wrapped in the background");
+    }
+
+    @Test
+    public void anEditBeforeTheLinesArriveMakesTheJobStale() throws InterruptedException {
+        TextStorage buffer = longBuffer(2);
+        worker.start(buffer, listener);
+        callbacks.runNext();
+        buffer.moveTo(0);
+        buffer.insertTextAtCursor("edited\n");
+        buffer.reformatText(WIDTH, HEIGHT);
+        callbacks.runNext();
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).apply());
+        // Started again, the job sees the edit
+        worker.start(buffer, listener);
+        callbacks.runNext();
+        callbacks.runNext();
+        assertTrue(results.get(1).apply());
+        assertLayoutFromScratch(buffer, WIDTH, "wrapped again after the edit");
+    }
+
+    @Test
+    public void anEditBeforeTheMeasuringMakesTheJobStale() throws InterruptedException {
+        /* Nothing is wrapped then, the listener is told at once */
+        TextStorage buffer = longBuffer(3);
+        worker.start(buffer, listener);
+        buffer.moveTo(100);
+        buffer.deleteCharFromTextStorage();
+        buffer.reformatText(WIDTH, HEIGHT);
+        callbacks.runNext();
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).apply());
+        assertFalse(worker.isRunning());
+    }
+
+    @Test
+    public void aNewWidthMakesTheJobStale() throws InterruptedException {
+        TextStorage buffer = longBuffer(4);
+        worker.start(buffer, listener);
+        callbacks.runNext();
+        buffer.reformatText(WIDTH/2, HEIGHT);
+        callbacks.runNext();
+        assertFalse(results.get(0).apply());
+        assertLayoutFromScratch(buffer, WIDTH/2, "wrapped at the new width");
+    }
+
+    @Test
+    public void startingAgainDropsTheJobThatWasRunning() throws InterruptedException {
+        /* Only the second job is reported, the callbacks of the first one do nothing */
+        TextStorage buffer = longBuffer(5);
+        worker.start(buffer, listener);
+        worker.start(buffer, listener);
+        for (int i = 0; i < 3; i++) {
+            callbacks.runNext();
+        }
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).apply());
+        worker.start(buffer, listener);
+        assertFalse(worker.isRunning());
+        worker.cancel();
+        assertTrue(callbacks.isEmpty());
+    }
+}
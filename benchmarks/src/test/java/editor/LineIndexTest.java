@@ -0,0 +1,121 @@
+package editor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+
+/** A LineIndex after random adds and replaces, with lines and pending runs and with blocks
+* made ahead of time, checked against a list of the same lines. */
+public class LineIndexTest {
+    /** A line, or a pending run of estimated lines */
+    private static class Entry {
+        final int length;
+        final int lines;
+        final boolean pending;
+
+        Entry(int length, int lines, boolean pending) {
+            this.length = length;
+            this.lines = lines;
+            this.pending = pending;
+        }
+    }
+
+    private static int firstLine(ArrayList<Entry> entries, int entry) {
+        int line = 0;
+        for (int i = 0; i < entry; i++) {
+            line += entries.get(i).lines;
+        }
+        return line;
+    }
+
+    private static int start(ArrayList<Entry> entries, int entry) {
+        int start = 0;
+        for (int i = 0; i < entry; i++) {
+            start += entries.get(i).length;
+        }
+        return start;
+    }
+
+    private static void assertMatches(ArrayList<Entry> entries, LineIndex index, String message) {
+        /* Asks the index about every line and about every offset */
+        int lines = firstLine(entries, entries.size());
+        int total = start(entries, entries.size());
+        assertEquals(message, lines, index.size());
+        assertEquals(message, total, index.totalLength());
+        ArrayList<Integer> runs = new ArrayList<Integer>();
+        int line = 0;
+        int start = 0;
+        for (Entry entry : entries) {
+            if (entry.pending) {
+                runs.add(line);
+            }
+            for (int i = 0; i < entry.lines; i++) {
+                assertEquals(message, start, index.start(line + i));
+                assertEquals(message, entry.length, index.length(line + i));
+                assertEquals(message, entry.pending, index.isPending(line + i));
+                assertEquals(message, line, index.runFirstLine(line + i));
+                assertEquals(message, entry.lines, index.runLines(line + i));
+            }
+            for (int offset = start; offset < start + entry.length; offset++) {
+                assertEquals(message, line, index.lineOf(offset));
+                assertEquals(message, offset == start ? line : -1, index.indexOf(offset));
+            }
+            line += entry.lines;
+            start += entry.length;
+        }
+        assertEquals(message, lines - 1, index.lineOf(total));
+        int[] expectedRuns = new int[runs.size()];
+        for (int i = 0; i < expectedRuns.length; i++) {
+            expectedRuns[i] = runs.get(i);
+        }
+        assertArrayEquals(message, expectedRuns, index.pendingRunLines());
+    }
+
+    @Test
+    public void matchesAListOfLines() {
+        Random random = new Random(14);
+        for (int round = 0; round < 50; round++) {
+            LineIndex index = new LineIndex();
+            ArrayList<Entry> entries = new ArrayList<Entry>();
+            for (int i = 0; i < 100; i++) {
+                if (entries.isEmpty() || random.nextInt(4) == 0) {
+                    // Adds a line or a pending run at the end
+                    Entry entry = new Entry(1 + random.nextInt(50), 1, false);
+                    if (random.nextInt(3) == 0) {
+                        entry = new Entry(1 + random.nextInt(500), 1 + random.nextInt(10), true);
+                        index.addPending(entry.length, entry.lines);
+                    } else {
+                        index.add(entry.length);
+                    }
+                    entries.add(entry);
+                } else {
+                    // Replaces the lines of some entries with new lines, which may be longer or shorter
+                    int from = random.nextInt(entries.size() + 1);
+                    int to = from + random.nextInt(Math.min(5, entries.size() - from) + 1);
+                    int count = 1 + random.nextInt(6);
+                    int[] starts = new int[count];
+                    starts[0] = start(entries, from);
+                    ArrayList<Entry> replacement = new ArrayList<Entry>();
+                    for (int j = 1; j < count; j++) {
+                        replacement.add(new Entry(1 + random.nextInt(50), 1, false));
+                        starts[j] = starts[j - 1] + replacement.get(j - 1).length;
+                    }
+                    replacement.add(new Entry(1 + random.nextInt(50), 1, false));
+                    int end = starts[count - 1] + replacement.get(count - 1).length;
+                    if (random.nextBoolean()) {
+                        int delta = end - start(entries, to);
+                        index.replace(firstLine(entries, from), firstLine(entries, to), starts, count, delta);
+                    } else {
+                        index.replace(firstLine(entries, from), firstLine(entries, to), LineIndex.block(starts, count, end));
+                    }
+                    entries.subList(from, to).clear();
+                    entries.addAll(from, replacement);
+                }
+                assertMatches(entries, index, "round " + round + " step " + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package editor;
+
+import static editor.TestSupport.HEIGHT;
+import static editor.TestSupport.assertLayoutFromScratch;
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.randomText;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** Lines of long paragraphs wrapped by a ParagraphWidths, checked against the lines that
+* TextStorage.nextLineStart wraps going along the characters, at widths where a character
+* often ends right at the edge. */
+public class ParagraphWidthsTest {
+    private static final double START_X = 5;
+
+    /** Characters of a few different widths, none a whole number of pixels */
+    private static class MixedWidths extends FixedWidthMetrics {
+        @Override
+        public double width(int codePoint) {
+            return super.width(codePoint)*(1 + codePoint%4/10.0);
+        }
+    }
+
+    private static void assertWrapsLikeTextStorage(String text, GlyphMetrics metrics, double xMax, String message) {
+        /* Measures the paragraph from its first line and again from a line in the middle */
+        GlyphMetrics glyphs = new TextStorage.ExactWidths(metrics);
+        glyphs.setFont("Verdana", 12);
+        PieceTable table = new PieceTable(text);
+        ParagraphWidths fromStart = new ParagraphWidths(table, 0, glyphs);
+        ParagraphWidths fromMiddle = null;
+        int line = 0;
+        for (int start = 0; start < text.length(); line++) {
+            int expected = TextStorage.nextLineStart(table, start, xMax, START_X, glyphs);
+            assertEquals(message + " line " + line, expected, fromStart.nextLineStart(table, start, xMax - START_X));
+            if (fromMiddle == null && start >= text.length()/2) {
+                fromMiddle = new ParagraphWidths(table, start, glyphs);
+            }
+            if (fromMiddle != null) {
+                assertEquals(message + " line " + line, expected, fromMiddle.nextLineStart(table, start, xMax - START_X));
+            }
+            start = expected;
+        }
+    }
+
+    @Test
+    public void wrapsLikeTextStorage() {
+        Random random = new Random(22);
+        for (int round = 0; round < 200; round++) {
+            String text = randomText(random, "abc W  ", 6000);
+            double xMax = START_X + 30 + random.nextInt(80);
+            assertWrapsLikeTextStorage(text, new FixedWidthMetrics(), xMax, "round " + round);
+            assertWrapsLikeTextStorage(text, new MixedWidths(), xMax + 0.5, "round " + round + " mixed");
+        }
+    }
+
+    @Test
+    public void reflowOfLongParagraphsMatchesALayoutFromScratch() {
+        Random random = new Random(41);
+        for (int round = 0; round < 200; round++) {
+            TextStorage buffer = newBuffer(randomText(random, "abc W  ", 6000));
+            buffer.reformatText(41, HEIGHT);
+            for (int i = 0; i < 3; i++) {
+                TextStorageTest.edit(random, buffer);
+                buffer.reformatText(41, HEIGHT);
+                assertLayoutFromScratch(buffer, 41, "round " + round + " edit " + i);
+            }
+        }
+    }
+}
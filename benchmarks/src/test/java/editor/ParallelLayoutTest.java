@@ -0,0 +1,44 @@
+package editor;
+
+import static editor.TestSupport.HEIGHT;
+import static editor.TestSupport.assertLayoutFromScratch;
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.randomText;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+/** Documents long enough to be split into runs, wrapped all at once on a ForkJoinPool and
+* checked against the lines that wrapping them one after the other gives. */
+public class ParallelLayoutTest {
+    @Test
+    public void matchesTheSequentialLayout() {
+        /* Some documents have paragraphs longer than a run, or are edited after they were first wrapped */
+        Random random = new Random(14);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                String text = randomText(random, TextStorageTest.ALPHABET, 200000);
+                if (round%3 == 0) {
+                    text += randomText(random, "abc W  ", 100000) + "\n" + text;
+                }
+                TextStorage buffer = newBuffer(text);
+                double width = 40 + random.nextInt(300);
+                buffer.reformatText(width, HEIGHT);
+                if (round%2 == 0) {
+                    TextStorageTest.edit(random, buffer);
+                    buffer.reformatText(width, HEIGHT);
+                }
+                assertNotNull(buffer.pendingLayout());
+                buffer.layoutPendingRunsInParallel(pool);
+                assertNull(buffer.pendingLayout());
+                assertLayoutFromScratch(buffer, width, "round " + round);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
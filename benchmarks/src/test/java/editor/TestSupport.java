@@ -0,0 +1,81 @@
+package editor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** What the tests share: random texts, documents laid out with FixedWidthMetrics, and an
+* executor that queues callbacks for the test thread, which stands in for the FX thread. */
+final class TestSupport {
+    static final double HEIGHT = 500;   //window height given to reformatText
+
+    private TestSupport() {
+    }
+
+    static String randomText(Random random, String alphabet, int length) {
+        /* A high surrogate in alphabet is always followed by the low one after it, a low one alone is skipped */
+        StringBuilder text = new StringBuilder(length + 1);
+        while (text.length() < length) {
+            char c = alphabet.charAt(random.nextInt(alphabet.length()));
+            if (Character.isHighSurrogate(c)) {
+                text.append(c).append(alphabet.charAt(alphabet.indexOf(c) + 1));
+            } else if (!Character.isLowSurrogate(c)) {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    static TextStorage newBuffer(CharSequence text) {
+        TextStorage buffer = new TextStorage(5, 0, new FixedWidthMetrics());
+        buffer.loadText(text);
+        return buffer;
+    }
+
+    static String text(TextStorage buffer) {
+        return buffer.snapshot().toString();
+    }
+
+    static int[] lineStarts(TextStorage buffer) {
+        /* Wraps the runs that are still pending first */
+        buffer.layoutLines(0, Integer.MAX_VALUE);
+        int[] starts = new int[buffer.lineCount()];
+        for (int line = 0; line < starts.length; line++) {
+            starts[line] = buffer.lineStart(line);
+        }
+        return starts;
+    }
+
+    static void assertLayoutFromScratch(TextStorage buffer, double width, String message) {
+        /* The lines of buffer have to be the ones a new document with its text wraps to */
+        TextStorage fromScratch = newBuffer(text(buffer));
+        fromScratch.setWrapping(buffer.isWrapping());
+        fromScratch.reformatText(width, HEIGHT);
+        assertArrayEquals(message, lineStarts(fromScratch), lineStarts(buffer));
+    }
+
+    /** Queues the callbacks of background work until the test runs them */
+    static class Callbacks implements Executor {
+        private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+
+        @Override
+        public void execute(Runnable callback) {
+            queue.add(callback);
+        }
+
+        void runNext() throws InterruptedException {
+            /* Waits for the next callback and runs it, fails if none comes within 10 seconds */
+            Runnable callback = queue.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no callback came", callback);
+            callback.run();
+        }
+
+        boolean isEmpty() {
+            return queue.isEmpty();
+        }
+    }
+}
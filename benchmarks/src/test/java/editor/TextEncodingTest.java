@@ -0,0 +1,83 @@
+package editor;
+
+import static editor.TestSupport.randomText;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+/** Files read with TextEncoding and written back with its Encoder, which has to give the same
+* bytes. The texts are longer than the blocks the encoder works in, so characters made of two
+* surrogates are split between blocks. */
+public class TextEncodingTest {
+    private static final String ALPHABET = "ab \né€中😀";     //the last two make one emoji
+    private static final int LENGTH = 200000;
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private static byte[] write(PieceTable text, TextEncoding encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TextEncoding.Encoder encoder = encoding.newEncoder(Channels.newChannel(bytes));
+        encoder.write(text, 0, text.length());
+        encoder.finish();
+        return bytes.toByteArray();
+    }
+
+    private static TextEncoding.Decoded assertRoundTrip(byte[] file, String expected) throws IOException {
+        TextEncoding.Decoded decoded = TextEncoding.decode(ByteBuffer.wrap(file));
+        assertEquals(expected, decoded.text.toString());
+        assertArrayEquals(file, write(new PieceTable(decoded.text), decoded.encoding));
+        return decoded;
+    }
+
+    @Test
+    public void asciiRoundTrips() throws IOException {
+        String text = randomText(new Random(9), "ab \n", LENGTH);
+        assertSame(TextEncoding.UTF_8, assertRoundTrip(text.getBytes(StandardCharsets.US_ASCII), text).encoding);
+    }
+
+    @Test
+    public void utf8RoundTrips() throws IOException {
+        String text = randomText(new Random(10), ALPHABET, LENGTH);
+        assertSame(TextEncoding.UTF_8, assertRoundTrip(text.getBytes(StandardCharsets.UTF_8), text).encoding);
+    }
+
+    @Test
+    public void byteOrderMarksRoundTrip() throws IOException {
+        String text = randomText(new Random(11), ALPHABET, LENGTH);
+        byte[][] boms = {{(byte) 0xef, (byte) 0xbb, (byte) 0xbf}, {(byte) 0xfe, (byte) 0xff}, {(byte) 0xff, (byte) 0xfe}};
+        Charset[] charsets = {StandardCharsets.UTF_8, StandardCharsets.UTF_16BE, StandardCharsets.UTF_16LE};
+        for (int i = 0; i < boms.length; i++) {
+            TextEncoding encoding = assertRoundTrip(concat(boms[i], text.getBytes(charsets[i])), text).encoding;
+            assertEquals(charsets[i], encoding.charset());
+            assertTrue(encoding.hasBom());
+        }
+    }
+
+    @Test
+    public void invalidUtf8IsReadAsLatin1() throws IOException {
+        byte[] file = new byte[LENGTH];
+        new Random(12).nextBytes(file);
+        String text = new String(file, StandardCharsets.ISO_8859_1);
+        assertSame(TextEncoding.LATIN_1, assertRoundTrip(file, text).encoding);
+    }
+
+    @Test(expected = IOException.class)
+    public void characterLatin1CannotHoldIsAnError() throws IOException {
+        write(new PieceTable("price: 5€"), TextEncoding.LATIN_1);
+    }
+}
@@ -0,0 +1,88 @@
+package editor;
+
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.randomText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+
+/** Counts of TextStatistics, checked against counting the characters of the same text one by
+* one. Snapshots of edited documents are made of many pieces, and long ones are copied out in
+* several chunks, with words across the chunk boundaries. */
+public class TextStatisticsTest {
+    private final TestSupport.Callbacks callbacks = new TestSupport.Callbacks();
+    private final TextStatistics statistics = new TextStatistics(callbacks);
+    private final ArrayList<TextStatistics.Counts> counted = new ArrayList<TextStatistics.Counts>();
+    private final TextStatistics.Listener listener = new TextStatistics.Listener() {
+        @Override
+        public void counted(TextStatistics.Counts counts) {
+            counted.add(counts);
+        }
+    };
+
+    private static void assertCounts(String text, TextStatistics.Counts counts, String message) {
+        long words = 0;
+        long lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i)) && (i == 0 || Character.isWhitespace(text.charAt(i - 1)))) {
+                words += 1;
+            }
+            if (text.charAt(i) == '\n' || i == text.length() - 1) {
+                lines += 1;
+            }
+        }
+        assertEquals(message, text.length(), counts.characters);
+        assertEquals(message, words, counts.words);
+        assertEquals(message, lines, counts.lines);
+    }
+
+    @Test
+    public void countsLikeWc() throws InterruptedException {
+        Random random = new Random(25);
+        for (int round = 0; round < 30; round++) {
+            TextStorage buffer = newBuffer(randomText(random, "ab \t\n", random.nextInt(round%3 == 0 ? 300000 : 300)));
+            for (int i = 0; i < 20; i++) {
+                TextStorageTest.edit(random, buffer);
+            }
+            PieceTable snapshot = buffer.snapshot();
+            statistics.count(snapshot, listener);
+            callbacks.runNext();
+            assertCounts(snapshot.toString(), counted.get(counted.size() - 1), "round " + round);
+        }
+    }
+
+    @Test
+    public void aSnapshotIsCountedOnce() throws InterruptedException {
+        PieceTable snapshot = new PieceTable("one two\nthree");
+        statistics.count(snapshot, listener);
+        callbacks.runNext();
+        statistics.count(snapshot, listener);
+        statistics.count(new PieceTable("one two\nthree"), listener);
+        callbacks.runNext();
+        assertEquals(2, counted.size());
+        Thread.sleep(100);
+        assertTrue(callbacks.isEmpty());
+    }
+
+    @Test
+    public void aNewerSnapshotReplacesTheCountThatIsRunning() throws InterruptedException {
+        /* The older count stops, or its counts are dropped if it finished first */
+        Random random = new Random(26);
+        PieceTable older = new PieceTable(randomText(random, "ab \n", 5000000));
+        PieceTable newer = new PieceTable("just this");
+        statistics.count(older, listener);
+        statistics.count(newer, listener);
+        while (counted.isEmpty()) {
+            callbacks.runNext();
+        }
+        Thread.sleep(500);
+        while (!callbacks.isEmpty()) {
+            callbacks.runNext();
+        }
+        assertEquals(1, counted.size());
+        assertCounts("just this", counted.get(0), "newer");
+    }
+}
@@ -0,0 +1,197 @@
+package editor;
+
+import static editor.TestSupport.HEIGHT;
+import static editor.TestSupport.assertLayoutFromScratch;
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.randomText;
+import static editor.TestSupport.text;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** The text of a TextStorage after random edits, checked against a StringBuilder that gets the
+* same edits, and its layout, checked against the layout of the same text made from scratch.
+* Some documents have a paragraph longer than LONG_PARAGRAPH, or are long enough to be split
+* into runs that are wrapped later. */
+public class TextStorageTest {
+    static final String ALPHABET = "abc W  \n";
+
+    static String startingText(Random random, int round) {
+        /* Every fifth document has a paragraph of 6000 characters, every seventh is 70000 characters */
+        if (round%7 == 0) {
+            return randomText(random, ALPHABET, 70000);
+        }
+        String text = randomText(random, ALPHABET, random.nextInt(400));
+        if (round%5 == 0) {
+            text += randomText(random, ALPHABET, 6000).replace('\n', ' ');
+        }
+        return text;
+    }
+
+    static void edit(Random random, TextStorage buffer) {
+        /* Types, maybe over a selection, pastes, backspaces, deletes or replaces a range at a random place */
+        int length = buffer.snapshot().length();
+        buffer.clearSelection();
+        buffer.moveTo(random.nextInt(length + 1));
+        switch (random.nextInt(5)) {
+            case 0:
+                if (random.nextBoolean()) {
+                    buffer.startSelection();
+                    buffer.moveTo(buffer.getCurrentPos() + random.nextInt(10));
+                }
+                buffer.typeText(randomText(random, ALPHABET, 1 + random.nextInt(3)));
+                break;
+            case 1:
+                buffer.insertTextAtCursor(randomText(random, ALPHABET, random.nextInt(200)));
+                break;
+            case 2:
+                buffer.deleteCharFromTextStorage();
+                break;
+            case 3:
+                buffer.startSelection();
+                buffer.moveTo(buffer.getCurrentPos() + random.nextInt(100));
+                buffer.deleteSelection();
+                break;
+            default:
+                buffer.startSelection();
+                buffer.moveTo(buffer.getCurrentPos() + random.nextInt(100));
+                buffer.replaceSelection(randomText(random, ALPHABET, random.nextInt(50)));
+        }
+        buffer.clearRedo();
+    }
+
+    private static void edit(Random random, TextStorage buffer, StringBuilder expected) {
+        /* Makes the same random edit in buffer and expected */
+        int length = expected.length();
+        int offset = random.nextInt(length + 1);
+        int end = Math.min(length, offset + random.nextInt(100));
+        buffer.clearSelection();
+        buffer.moveTo(offset);
+        switch (random.nextInt(5)) {
+            case 0:
+                String typed = randomText(random, ALPHABET, 1 + random.nextInt(3));
+                int typedOver = random.nextBoolean() ? end : offset;
+                buffer.startSelection();
+                buffer.moveTo(typedOver);
+                buffer.typeText(typed);
+                expected.replace(offset, typedOver, typed);
+                break;
+            case 1:
+                String pasted = randomText(random, ALPHABET, random.nextInt(200));
+                buffer.insertTextAtCursor(pasted);
+                expected.insert(offset, pasted);
+                break;
+            case 2:
+                buffer.deleteCharFromTextStorage();
+                if (offset > 0) {
+                    expected.deleteCharAt(offset - 1);
+                }
+                break;
+            case 3:
+                buffer.startSelection();
+                buffer.moveTo(end);
+                buffer.deleteSelection();
+                expected.delete(offset, end);
+                break;
+            default:
+                String replacement = randomText(random, ALPHABET, random.nextInt(50));
+                buffer.startSelection();
+                buffer.moveTo(end);
+                buffer.replaceSelection(replacement);
+                expected.replace(offset, end, replacement);
+        }
+        buffer.clearRedo();
+    }
+
+    @Test
+    public void editsMatchAStringBuilder() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            String start = startingText(random, round);
+            TextStorage buffer = newBuffer(start);
+            StringBuilder expected = new StringBuilder(start);
+            for (int i = 0; i < 200; i++) {
+                edit(random, buffer, expected);
+                assertEquals("round " + round + " edit " + i, expected.toString(), text(buffer));
+            }
+        }
+    }
+
+    @Test
+    public void replacingASelectionIsUndoneInOneStep() {
+        TextStorage buffer = newBuffer("one two three");
+        buffer.moveTo(4);
+        buffer.startSelection();
+        buffer.moveTo(7);
+        buffer.replaceSelection("2");
+        assertEquals("one 2 three", text(buffer));
+        assertEquals(5, buffer.getCurrentPos());
+        buffer.undoAction();
+        assertEquals("one two three", text(buffer));
+        assertEquals(7, buffer.getCurrentPos());
+        buffer.redoAction();
+        assertEquals("one 2 three", text(buffer));
+        assertEquals(5, buffer.getCurrentPos());
+    }
+
+    @Test
+    public void typingOverASelectionIsUndoneWithTheLineTyped() {
+        /* Typing comes in a few characters a frame. What is typed up to a newline goes with the selection */
+        TextStorage buffer = newBuffer("one two three");
+        buffer.moveTo(7);
+        buffer.startSelection();
+        buffer.moveTo(4);
+        buffer.typeText("t");
+        buffer.typeText("wo");
+        buffer.typeText("!\nfour");
+        assertEquals("one two!\nfour three", text(buffer));
+        buffer.undoAction();
+        assertEquals("one two!\n three", text(buffer));
+        buffer.undoAction();
+        assertEquals("one two three", text(buffer));
+        buffer.redoAction();
+        assertEquals("one two!\n three", text(buffer));
+        assertEquals(9, buffer.getCurrentPos());
+    }
+
+    @Test
+    public void appendedTextMatchesALayoutFromScratch() {
+        /* Appends like a followed log, in pieces that may end in the middle of a line */
+        Random random = new Random(4);
+        for (int round = 0; round < 20; round++) {
+            TextStorage buffer = newBuffer(randomText(random, ALPHABET, random.nextInt(400)));
+            double width = 40 + random.nextInt(300);
+            buffer.reformatText(width, HEIGHT);
+            for (int i = 0; i < 10; i++) {
+                buffer.appendText(randomText(random, ALPHABET, random.nextInt(4) == 0 ? 70000 : random.nextInt(300)));
+                buffer.reformatText(width, HEIGHT);
+                assertLayoutFromScratch(buffer, width, "round " + round + " append " + i);
+            }
+        }
+    }
+
+    @Test
+    public void reflowMatchesALayoutFromScratch() {
+        /* Sometimes the pending runs are wrapped first, sometimes they are left for later */
+        Random random = new Random(3);
+        for (int round = 0; round < 40; round++) {
+            TextStorage buffer = newBuffer(startingText(random, round));
+            double width = 40 + random.nextInt(300);
+            buffer.reformatText(width, HEIGHT);
+            for (int i = 0; i < 60; i++) {
+                for (int edits = random.nextInt(4); edits > 0; edits--) {
+                    edit(random, buffer);
+                }
+                if (random.nextInt(5) == 0) {
+                    buffer.undoAction();
+                }
+                buffer.reformatText(width, HEIGHT);
+                if (random.nextBoolean()) {
+                    buffer.layoutLines(0, random.nextInt(50));
+                }
+                assertLayoutFromScratch(buffer, width, "round " + round + " edit " + i);
+            }
+        }
+    }
+}
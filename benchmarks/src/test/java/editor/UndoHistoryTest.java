@@ -0,0 +1,147 @@
+package editor;
+
+import static editor.TestSupport.newBuffer;
+import static editor.TestSupport.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** How an UndoHistory merges typing and backspacing, keeps to its byte budget, and takes a
+* TextStorage back to the text it was loaded with and forward again. */
+public class UndoHistoryTest {
+    @Test
+    public void typingMergesUntilANewline() {
+        UndoHistory history = new UndoHistory(1 << 20);
+        String typed = "ab\ncd";
+        for (int i = 0; i < typed.length(); i++) {
+            history.recordInsert(10 + i, typed.substring(i, i + 1));
+        }
+        UndoHistory.Edit edit = history.undo();
+        assertEquals(UndoHistory.Op.INSERT, edit.op());
+        assertEquals(13, edit.offset());
+        assertEquals("cd", edit.text());
+        edit = history.undo();
+        assertEquals(10, edit.offset());
+        assertEquals("ab\n", edit.text());
+        assertNull(history.undo());
+    }
+
+    @Test
+    public void backspacesMergeInTheirOrderInTheText() {
+        UndoHistory history = new UndoHistory(1 << 20);
+        String deleted = "hello world";
+        for (int i = deleted.length() - 1; i >= 0; i--) {
+            history.recordDelete(20 + i, deleted.substring(i, i + 1));
+        }
+        UndoHistory.Edit edit = history.undo();
+        assertEquals(UndoHistory.Op.DELETE, edit.op());
+        assertEquals(20, edit.offset());
+        assertEquals(deleted.length(), edit.length());
+        assertEquals(deleted, edit.text());
+        assertNull(history.undo());
+    }
+
+    @Test(timeout = 5000)
+    public void aLongRunOfBackspacesTakesLinearTime() {
+        /* Putting each character in front of the ones deleted before it would copy them all every time */
+        int count = 1 << 20;
+        UndoHistory history = new UndoHistory(Long.MAX_VALUE);
+        for (int i = count - 1; i >= 0; i--) {
+            history.recordDelete(i, String.valueOf((char) ('a' + i%26)));
+        }
+        String text = history.undo().text();
+        assertEquals(count, text.length());
+        for (int i = 0; i < count; i += 4093) {
+            assertEquals((char) ('a' + i%26), text.charAt(i));
+        }
+    }
+
+    @Test
+    public void budgetDropsTheOldestEdits() {
+        UndoHistory history = new UndoHistory(4096);
+        for (int i = 0; i < 1000; i++) {
+            history.recordEdit(UndoHistory.Op.INSERT, i*10, "0123456789");
+            assertTrue(history.bytesUsed() <= 4096);
+        }
+        int kept = 0;
+        int offset = 10000;
+        for (UndoHistory.Edit edit = history.undo(); edit != null; edit = history.undo()) {
+            assertTrue(edit.offset() < offset);
+            offset = edit.offset();
+            kept += 1;
+        }
+        assertTrue(kept > 0 && kept < 1000);
+        assertEquals(9990, offset + 10*(kept - 1));
+        history.clearRedo();
+        assertEquals(0, history.bytesUsed());
+    }
+
+    @Test
+    public void bytesAreCountedBackToNothing() {
+        /* Merged, undone and redone edits are counted the same way in and out */
+        Random random = new Random(15);
+        UndoHistory history = new UndoHistory(1 << 20);
+        for (int i = 0; i < 2000; i++) {
+            int offset = random.nextInt(100);
+            switch (random.nextInt(6)) {
+                case 0:
+                    history.recordInsert(offset, "x");
+                    break;
+                case 1:
+                    history.recordDelete(offset, "y");
+                    break;
+                case 2:
+                    history.recordEdit(UndoHistory.Op.DELETE, offset, "zz");
+                    break;
+                case 3:
+                    history.recordReplace(offset, "abc", "d");
+                    break;
+                case 4:
+                    history.undo();
+                    break;
+                default:
+                    history.redo();
+            }
+        }
+        while (history.undo() != null) {
+            continue;
+        }
+        history.clearRedo();
+        assertEquals(0, history.bytesUsed());
+    }
+
+    @Test
+    public void undoAndRedoGoBackAndForth() {
+        /* Undoing everything gives the text that was loaded and redoing everything gives the
+         * edited text back. An undo and a redo in between change nothing */
+        Random random = new Random(2);
+        for (int round = 0; round < 50; round++) {
+            String start = TextStorageTest.startingText(random, round);
+            TextStorage buffer = newBuffer(start);
+            for (int i = 0; i < 100; i++) {
+                TextStorageTest.edit(random, buffer);
+                if (random.nextInt(4) == 0) {
+                    String edited = text(buffer);
+                    buffer.undoAction();
+                    buffer.redoAction();
+                    assertEquals("round " + round + " edit " + i, edited, text(buffer));
+                }
+            }
+            String edited = text(buffer);
+            PieceTable before;
+            do {
+                before = buffer.snapshot();
+                buffer.undoAction();
+            } while (buffer.snapshot() != before);
+            assertEquals("round " + round, start, text(buffer));
+            do {
+                before = buffer.snapshot();
+                buffer.redoAction();
+            } while (buffer.snapshot() != before);
+            assertEquals("round " + round, edited, text(buffer));
+        }
+    }
+}
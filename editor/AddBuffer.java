@@ -0,0 +1,80 @@
+package editor;
+
+/** AddBuffer is the append-only buffer behind the pieces of a PieceTable. Text is stored in
+* fixed-size blocks that are never moved or changed once written, so a PieceTable that was
+* handed to another thread can keep reading it while more text is appended. */
+public class AddBuffer implements CharSequence {
+    private static final int BLOCK_SIZE = 4096;
+    private volatile char[][] blocks = new char[16][];
+    private volatile int length = 0;
+
+    public void append(CharSequence s) {
+        /* The new length is published last, after the characters are in place */
+        char[][] current = blocks;
+        int end = length;
+        for (int i = 0; i < s.length(); i++) {
+            int block = end/BLOCK_SIZE;
+            if (block == current.length) {
+                char[][] grown = new char[2*current.length][];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+                blocks = current;
+            }
+            if (current[block] == null) {
+                current[block] = new char[BLOCK_SIZE];
+            }
+            current[block][end%BLOCK_SIZE] = s.charAt(i);
+            end += 1;
+        }
+        blocks = current;
+        length = end;
+    }
+
+    public void append(char[] chars, int start, int end) {
+        /* Copies a block at a time, for decoding a whole file into the buffer */
+        char[][] current = blocks;
+        int length = this.length;
+        while (start < end) {
+            int block = length/BLOCK_SIZE;
+            if (block == current.length) {
+                char[][] grown = new char[2*current.length][];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+                blocks = current;
+            }
+            if (current[block] == null) {
+                current[block] = new char[BLOCK_SIZE];
+            }
+            int count = Math.min(end - start, BLOCK_SIZE - length%BLOCK_SIZE);
+            System.arraycopy(chars, start, current[block], length%BLOCK_SIZE, count);
+            start += count;
+            length += count;
+        }
+        blocks = current;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return blocks[index/BLOCK_SIZE][index%BLOCK_SIZE];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(charAt(i));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
@@ -0,0 +1,100 @@
+package editor;
+
+/** Caret is the cursor of a TextStorage without anything to draw it with. The cursor is
+* after the character at the current position, and its Placement says on which side of
+* that character it is shown. Moving with the arrow keys and placing the cursor at a
+* point of the document are done here, so they work without JavaFX. */
+public class Caret {
+    /** Where the cursor is shown, relative to the character before it */
+    public enum Placement {
+        AFTER,      //right after the character
+        BEFORE,     //before the character, which is the first one of its line
+        ENTER       //at the start of the line after the character, which is a newline
+    }
+
+    private final TextStorage buffer;
+    private double x;       //document coordinates of the top left of the cursor
+    private double y;
+
+    /** Constructor */
+    public Caret(TextStorage buffer) {
+        this.buffer = buffer;
+        x = buffer.lineX();
+        y = buffer.lineY(0);
+    }
+
+    public double x() {
+        return x;
+    }
+
+    public double y() {
+        return y;
+    }
+
+    public void place(Placement placement) {
+        /* Updates the position from the current position of the buffer */
+        switch (placement) {
+            case ENTER:
+                x = buffer.lineX();
+                y = buffer.getCurrY() + buffer.lineHeight();
+                break;
+            case AFTER:
+                x = buffer.getCurrX() + buffer.getCurrWidth();
+                y = buffer.getCurrY();
+                break;
+            case BEFORE:
+                x = buffer.getCurrX();
+                y = buffer.getCurrY();
+        }
+    }
+
+    public void shiftY(double dy) {
+        /* Moves the cursor along with its line when the lines above it are wrapped again */
+        y += dy;
+    }
+
+    public void moveTo(double xPos, double yPos) {
+        /* Moves to the character closest to a point of the document, or to the end if the point is below the last line */
+        if (buffer.moveToClosestNode(xPos, yPos, 0)) {
+            place(buffer.leftOfCurrText(xPos) ? Placement.BEFORE : Placement.AFTER);
+        } else {
+            buffer.moveToLastNode();
+            place(Placement.AFTER);
+        }
+    }
+
+    public void moveUp() {
+        if (buffer.moveToClosestNode(x, y - buffer.lineHeight(), 0)) {
+            place(Placement.AFTER);
+        }
+    }
+
+    public void moveDown() {
+        if (buffer.moveToClosestNode(x, y + buffer.lineHeight(), 0)) {
+            place(Placement.AFTER);
+        }
+    }
+
+    public void moveLeft() {
+        /* At the first character of a line the cursor first goes before that character */
+        if (!buffer.isBeginning()) {
+            if (buffer.isFirstCharOfLine() && x != buffer.lineX()) {
+                x = buffer.lineX();
+            } else {
+                buffer.moveToPreviousNode();
+                place(Placement.AFTER);
+            }
+        }
+    }
+
+    public void moveRight() {
+        if (!buffer.isEnd()) {
+            if (x == buffer.lineX() && !buffer.isNewline()) {
+                x = buffer.lineX() + buffer.getCurrWidth();
+            } else {
+                buffer.moveToNextNode();
+                place(buffer.isFirstCharOfLine() ? Placement.BEFORE : Placement.AFTER);
+            }
+        }
+    }
+}
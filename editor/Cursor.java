@@ -2,34 +2,28 @@ package editor;
 
 import javafx.scene.shape.Rectangle;
 import javafx.scene.Group;
-import javafx.scene.text.Font;
-import javafx.scene.text.Text;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.util.Duration;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 
-/* Cursor class that handles all of the cursor aspects **/
+/* Cursor class that draws the Caret of a TextStorage as a blinking rectangle **/
 public class Cursor {
-    private static double STARTING_CURSOR_X = 5.0;
-    private static double STARTING_CURSOR_Y = 0.0;
-    private static double LINE_HEIGHT;
     private final Rectangle cursor;
-    private TextStorage buffer;
+    private final Caret caret;
+    private final Timeline timeline = new Timeline();
     
     
     public Cursor(TextStorage buffer, Group root) {
-        Text tempHeight = TextStorage.charToText(0, 0, "a");
-        LINE_HEIGHT = tempHeight.getLayoutBounds().getHeight();
-        this.buffer = buffer;
-        cursor = new Rectangle(STARTING_CURSOR_X, STARTING_CURSOR_Y, 0.0, LINE_HEIGHT);
+        caret = new Caret(buffer);
+        cursor = new Rectangle(caret.x(), caret.y(), 0.0, buffer.lineHeight());
         this.makeCursor();
         root.getChildren().add(cursor);
     }
     
     public double lineHeight() {
-        return LINE_HEIGHT;
+        return cursor.getHeight();
     }
     
     /** An EventHandler to handle changing blinking of the cursor. */
@@ -58,9 +52,8 @@ public class Cursor {
     
     /* Makes the blinking cursor */
     private void makeCursor() {
-        // Create a Timeline that will call the "handle" function of CursorBlinkEventHandler
+        // Set up the Timeline to call the "handle" function of CursorBlinkEventHandler
         // every 0.5 second.
-        final Timeline timeline = new Timeline();
         // The rectangle should continue blinking forever.
         timeline.setCycleCount(Timeline.INDEFINITE);
         CursorBlinkEventHandler cursorChange = new CursorBlinkEventHandler();
@@ -69,29 +62,35 @@ public class Cursor {
         timeline.play();
     }
     
-    public void updateCursor(String status) {    
-        /* Updates the cursor depending on the situation */
-        Text currText = buffer.getCurrText();
-        
-        switch(status)
-        {
-            case "ENTER":
-            cursor.setX(STARTING_CURSOR_X);
-            cursor.setY(currText.getY() + LINE_HEIGHT);
-            break;
-            case "AFTER":   //put the cursor after the text
-            cursor.setX(currText.getX() + Editor.getTextWidth(currText));
-            cursor.setY(currText.getY());
-            break;
-            case "BEFORE":
-            cursor.setX(currText.getX());
-            cursor.setY(currText.getY());
+    public void setBlinking(boolean blinking) {
+        /* A cursor that is not blinking is hidden, for a document that is not shown */
+        if (blinking) {
+            timeline.play();
+        } else {
+            timeline.stop();
+            cursor.setWidth(0.0);
         }
     }
     
+    public void updateCursor(String status) {    
+        /* Updates the cursor depending on the situation: "AFTER", "BEFORE" or "ENTER" */
+        caret.place(Caret.Placement.valueOf(status));
+        show();
+    }
+    
+    private void show() {
+        cursor.setX(caret.x());
+        cursor.setY(caret.y());
+    }
+    
+    public void shiftY(double dy) {
+        /* Moves the cursor along with its line when the lines above it are wrapped again */
+        caret.shiftY(dy);
+        show();
+    }
+    
     public void changeCursorHeight(double height) {
-        LINE_HEIGHT = height;
-        cursor.setHeight(LINE_HEIGHT);
+        cursor.setHeight(height);
     }
     
     public double getX() {
@@ -110,41 +109,28 @@ public class Cursor {
         return (cursor.getY() > scrollOffset + (double) windowHeight);
     }
     
-    public void moveCursorUp(int scrollOffset) {
-        if(buffer.moveToClosestNode(cursor.getX(), cursor.getY() - LINE_HEIGHT - scrollOffset, scrollOffset)) {                        
-            this.updateCursor("AFTER");
-        }
+    public void moveCursorTo(double x, double y) {
+        caret.moveTo(x, y);
+        show();
     }
     
-    public void moveCursorDown(int scrollOffset) {
-        if(buffer.moveToClosestNode(cursor.getX(), cursor.getY() + LINE_HEIGHT - scrollOffset, scrollOffset)) {
-            this.updateCursor("AFTER");
-        }
+    public void moveCursorUp() {
+        caret.moveUp();
+        show();
+    }
+    
+    public void moveCursorDown() {
+        caret.moveDown();
+        show();
     }
     
     public void moveCursorLeft() {
-        if(!buffer.isBeginning()) {
-            if (buffer.isFirstCharOfLine() && cursor.getX() != STARTING_CURSOR_X) {
-                cursor.setX(STARTING_CURSOR_X);
-            } else {
-                buffer.moveToPreviousNode();
-                this.updateCursor("AFTER");
-            }
-        }
+        caret.moveLeft();
+        show();
     }
     
     public void moveCursorRight() {
-        if(!buffer.isEnd()) {
-            if (cursor.getX() == STARTING_CURSOR_X && !buffer.isNewline()) {
-                cursor.setX(STARTING_CURSOR_X + Editor.getTextWidth(buffer.getCurrText()));
-            } else {
-                buffer.moveToNextNode();
-                if (buffer.isFirstCharOfLine()) {
-                    this.updateCursor("BEFORE");
-                } else {
-                    this.updateCursor("AFTER");
-                }
-            }
-        }
+        caret.moveRight();
+        show();
     }
-}
\ No newline at end of file
+}
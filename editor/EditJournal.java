@@ -0,0 +1,258 @@
+package editor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+/** EditJournal keeps every edit since the last save in a file next to the document, so that
+* they can be replayed over the saved file after a crash. Edits are appended to a buffer as
+* they are made, and a background thread shared by every journal writes what has piled up
+* and syncs it to disk a few times a second. Every record has a checksum, so a record that
+* was cut short by a crash is found and dropped when the journal is read. After a save the
+* edits that the saved file already holds are removed from the journal.
+*
+* A journal starts with a header of MAGIC, the length and the modification time of the file
+* it applies to. Each record is the offset, the number of characters removed, the number of
+* characters inserted, the inserted characters and a CRC32 of all of them. */
+public class EditJournal implements TextStorage.EditListener {
+    private static final int MAGIC = 0x45444a31;        //"EDJ1"
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+    private static final long FLUSH_INTERVAL = 200;     //milliseconds between writes to disk
+
+    /* One writer thread is shared by the journals of every open document */
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "edit journal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final ScheduledFuture<?> flushes;
+    private FileChannel channel;        //only used on the writer thread
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();   //records not written yet, guarded by this
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private long total = 0;             //bytes of every record made so far, only used on the editing thread
+    private long dropped = 0;           //bytes of the records that saves removed from the journal
+    private final CRC32 checksum = new CRC32();
+    private final int recovered;
+
+    private EditJournal(File file, File base, long validLength, int recovered) throws IOException {
+        this.file = file;
+        this.recovered = recovered;
+        if (validLength == 0) {
+            writeNew(file, base, ByteBuffer.allocate(0));
+            validLength = HEADER_SIZE;
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(validLength);      //drops a record that was cut short
+        channel.position(validLength);
+        total = validLength - HEADER_SIZE;
+        flushes = writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public static File journalOf(String fileName) {
+        return new File(fileName + ".journal");
+    }
+
+    public static EditJournal open(File base, TextStorage buffer) throws IOException {
+        /* Replays the journal of base into buffer, which holds the text of base, and goes on
+         * journaling the edits of buffer. A journal made for another version of base is ignored */
+        File file = journalOf(base.getPath());
+        long validLength = 0;
+        int recovered = 0;
+        if (file.exists()) {
+            ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (journal.remaining() >= HEADER_SIZE && journal.getInt() == MAGIC
+                    && journal.getLong() == base.length() && journal.getLong() == base.lastModified()) {
+                recovered = replay(journal, buffer);
+                validLength = journal.position();
+            } else {
+                System.out.println("Ignoring " + file + ", it was not made for this version of " + base);
+            }
+        }
+        EditJournal editJournal = new EditJournal(file, base, validLength, recovered);
+        buffer.addEditListener(editJournal);
+        return editJournal;
+    }
+
+    private static int replay(ByteBuffer journal, TextStorage buffer) {
+        /* Stops at the first record that is incomplete or does not match its checksum */
+        CRC32 crc = new CRC32();
+        int count = 0;
+        while (journal.remaining() >= 12) {
+            int start = journal.position();
+            int offset = journal.getInt();
+            int removed = journal.getInt();
+            int length = journal.getInt();
+            if (length < 0 || journal.remaining() < 2L*length + 4) {
+                journal.position(start);
+                break;
+            }
+            char[] inserted = new char[length];
+            journal.asCharBuffer().get(inserted);
+            journal.position(journal.position() + 2*length);
+            crc.reset();
+            crc.update(journal.array(), start, journal.position() - start);
+            if (journal.getInt() != (int) crc.getValue() || offset < 0 || removed < 0
+                    || offset + removed > buffer.snapshot().length()) {
+                journal.position(start);
+                break;
+            }
+            buffer.replayEdit(offset, removed, new String(inserted));
+            count += 1;
+        }
+        return count;
+    }
+
+    public int recovered() {
+        /* Number of edits replayed when the journal was opened */
+        return recovered;
+    }
+
+    @Override
+    public void edited(int offset, int removed, CharSequence inserted) {
+        recordBytes.reset();
+        try {
+            record.writeInt(offset);
+            record.writeInt(removed);
+            record.writeInt(inserted.length());
+            record.writeChars(inserted.toString());
+            checksum.reset();
+            checksum.update(recordBytes.toByteArray(), 0, recordBytes.size());
+            record.writeInt((int) checksum.getValue());
+            synchronized (this) {
+                recordBytes.writeTo(pending);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);    //a ByteArrayOutputStream does not throw
+        }
+        total += recordBytes.size();
+    }
+
+    public long mark() {
+        /* Call when a snapshot is saved, then give the mark to saved once the save is done */
+        return total;
+    }
+
+    public void saved(long mark, final File base) {
+        /* Starts the journal over from the saved file, keeping the edits made after the snapshot.
+         * Saves have to be reported in the order they were marked */
+        final long from = HEADER_SIZE + mark - dropped;
+        dropped = mark;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                try {
+                    ByteBuffer later = ByteBuffer.allocate((int) (channel.size() - from));
+                    while (later.hasRemaining()) {
+                        if (channel.read(later, from + later.position()) < 0) {
+                            break;
+                        }
+                    }
+                    later.flip();
+                    channel.close();
+                    writeNew(file, base, later);
+                    channel = new RandomAccessFile(file, "rw").getChannel();
+                    channel.position(channel.size());
+                } catch (IOException ioException) {
+                    System.out.println("Error when clearing the edit journal; exception was: " + ioException);
+                }
+            }
+        });
+    }
+
+    private void flush() {
+        /* Group commit: everything written since the last flush is synced at once */
+        ByteArrayOutputStream batch;
+        synchronized (this) {
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = pending;
+            pending = new ByteArrayOutputStream();
+        }
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        } catch (IOException ioException) {
+            System.out.println("Error when writing the edit journal; exception was: " + ioException);
+        }
+    }
+
+    public void close() {
+        /* Writes the edits that are still pending and waits for the journal to be closed */
+        flushes.cancel(false);
+        Future<?> closed = writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                try {
+                    channel.close();
+                } catch (IOException ioException) {
+                    System.out.println("Error when closing the edit journal; exception was: " + ioException);
+                }
+            }
+        });
+        try {
+            closed.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.out.println("Error when closing the edit journal; exception was: " + e);
+        }
+    }
+
+    private static void writeNew(File file, File base, ByteBuffer records) throws IOException {
+        /* Writes a journal with a new header to a temporary file and moves it over file */
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        FileChannel out = new RandomAccessFile(temp, "rw").getChannel();
+        try {
+            out.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putLong(base.length()).putLong(base.lastModified()).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            while (records.hasRemaining()) {
+                out.write(records);
+            }
+            out.force(true);
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
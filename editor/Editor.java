@@ -1,6 +1,11 @@
 package editor;
 
+import java.util.ArrayList;
 import java.util.List;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
@@ -8,22 +13,32 @@ import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
 import javafx.scene.Group;
 import javafx.scene.Scene;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.control.ScrollBar;
+import javafx.scene.control.TextField;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.util.Duration;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.Objects;
 
 /**
@@ -33,8 +48,8 @@ import java.util.Objects;
 *Created according to the approximate specifications of 
 * http://datastructur.es/sp16/materials/proj/proj2/proj2.html
 *
-* (Compile using a *.txt file name as the first command line argument. 
-* If the file exists, it will be opened. If not, a blank document will be created.)
+* (Compile using one or more *.txt file names as the command line arguments. 
+* Files that exist will be opened. If not, a blank document will be created.)
 *
 * A basic text editor that supports the following features:
 * -Current position is denoted with a flashing cursor
@@ -42,15 +57,41 @@ import java.util.Objects;
 * -Newlines
 * -Backspace (Not delete though)
 * -Open a file
-*    The file name of the file to be opened should be given as the first command line argument. (mandatory)
+*    The file names of the files to be opened should be given as command line arguments. (at least one)
+*    More files can be opened with Ctrl/Cmd+O.
+*    UTF-8, UTF-16 with a byte order mark and Latin-1 files are read, and saved the same way.
+*    Files larger than editor.mapBytes are mapped rather than read. One that another program writes
+*    over is read again, without the edits that were not saved
+* -Several open files, one shown at a time. Ctrl+Tab and Ctrl+Shift+Tab, or Ctrl/Cmd+PAGE DOWN and
+*     Ctrl/Cmd+PAGE UP, switch between them and Ctrl/Cmd+W closes the one shown. Each keeps its own
+*     text, cursor, font size, undo history and search, and only the one shown has nodes in the scene
+* -Files larger than 2 GB, or than editor.hugeFileBytes, are shown read-only in a window of their own.
+*     They are mapped rather than read and their lines are indexed in the background, so memory
+*     does not grow with their size
 * -Save a file (Ctrl/Cmd+S)
-*     The file is written to the name of first command line argument.
+*     The file shown is written to the name it was opened with.
 * -Arrow keys for navigation
 * -Mouse input (clicking moves the cursor as you would expect)
+* -Selecting text by dragging the mouse or with Shift+arrow keys, then deleting it (Backspace),
+*     replacing it by typing, cutting (Ctrl/Cmd+X) or copying (Ctrl/Cmd+C) it
+* -Line wrapping on and off (Ctrl/Cmd+L). Without it the window follows the cursor sideways. Lines
+*     of any length, wrapped or not, are drawn, measured and wrapped in about the same time
+* -Following a file that other programs append to, like a log (Ctrl/Cmd+T). Only the new bytes are
+*     read and only the new lines are wrapped, and the window follows the end while the cursor is
+*     there. A file that gets shorter is read again. Edits of a followed file are not journaled
 * -Window re-sizing
 * -Vertical scrolling using scroll bar
 * -Undo and redo (Ctrl/Cmd+Z and Ctrl/Cmd+Y)
+* -Paste (Ctrl/Cmd+V)
+* -Recovery after a crash. Edits are journaled next to the file until it is saved, and replayed when it is opened again
+* -Find (Ctrl/Cmd+F). Every match is highlighted as the text is typed. Enter and Shift+Enter,
+*     or Ctrl/Cmd+G and Ctrl/Cmd+Shift+G, select the next and previous match, Escape closes the search
 * -Changing the font size by 4 points (Ctrl/Cmd+PLUS and Ctrl/Cmd+MINUS)
+* -Performance overlay (F12) with latency percentiles of key presses, reflow, hit tests, font changes,
+*     undo and the FX pulse, the lines wrapped and bytes allocated per edit, the glyph cache hit rate,
+*     and the characters, words and lines of the document, counted in the background. The timings are
+*     also printed every minute while keys are being pressed, or every editor.metricsSeconds seconds
+*     (0 turns it off)
 */
     
 public class Editor extends Application {
@@ -60,53 +101,132 @@ public class Editor extends Application {
     private static final int STARTING_WINDOW_HEIGHT = 500;
     private static final double STARTING_TEXT_POSITION_X = 5.0;
     private static final double STARTING_TEXT_POSITION_Y = 0.0;
-    private static int MARGIN = 5;
-    private static int windowWidth;
-    private static int windowHeight;
-    private static int scrollOffset = 0;    //offset for the scroll bar
+    private int margin = 5;
+    private int windowWidth;
+    private int windowHeight;
+    private int scrollOffset = 0;           //offset for the scroll bar
+    private int scrollX = 0;                //how far the text is moved left, only without wrapping
     public Group root;
-    public Group textRoot;
-    private TextStorage buffer;             //datastructure used to store the characters input
-    private static String fileName;
+    public Group textRoot;                  //lines and cursor of the document shown
+    private TextStorage buffer;             //datastructure used to store the characters input, of the document shown
+    private GlyphCache glyphs;              //measures the characters for every document
+    private Viewport viewport;              //draws the lines that are inside the window
+    private final ArrayList<Document> documents = new ArrayList<Document>();  //open files, in the order they were opened
+    private Document shown;
+    private Stage stage;
+    private final Executor fxThread;
+    private FileSaver saver;                //writes the documents to disk in the background
+    private final ForkJoinPool layoutPool = new ForkJoinPool();  //wraps lines for every document
+    private LayoutWorker layoutWorker;      //wraps the lines outside the window in the background
+    private static final Duration RESIZE_DELAY = Duration.millis(150);  //quiet time after a resize before the whole document is wrapped
+    private PauseTransition resizeSettled;
+    private Finder finder;                  //matches of the search, kept up to date with the edits
+    private TextField findField;
+    private static final int FIND_WIDTH = 200;
+    private int findOrigin;                 //where the cursor was when the search was opened
+    private boolean selectFirstMatch;       //true until a match of the pattern being typed is selected
+    private final Metrics metrics = new Metrics();
+    private static final long HUGE_FILE_BYTES = Long.getLong("editor.hugeFileBytes", Integer.MAX_VALUE);  //files larger than this are only viewed
+    private static final long MAP_BYTES = Long.getLong("editor.mapBytes", 64 << 20);  //files larger than this are mapped rather than read
+    private static final long METRICS_SECONDS = Long.getLong("editor.metricsSeconds", 60);  //seconds between metrics log lines, 0 for none
+    private Group hud;                      //overlay showing the metrics
+    private Text hudText;
+    private Rectangle hudBackground;
+    private Timeline hudRefresh;
+    private final TextStatistics statistics;    //counts the document shown in the background, for the overlay
+    private TextStatistics.Counts counts;       //last counts, of the document shown or the one shown before
+    private long keyPressedAt = 0;          //nanoTime of the first key event not painted yet, 0 if there is none
+    private long allocatedAtKey;
+    private long linesAtKey;
+    private PieceTable textAtKey;           //the text before the key event, to tell if it was an edit
+    private long pulseStartedAt;
+    private AnimationTimer nextPulse;       //runs in the pulse after a key event, then stops
+    private final StringBuilder typed = new StringBuilder();  //characters typed since the last pulse, not in the document yet
+
+    /** Everything that belongs to one open file. The glyph widths, the layout pool, the saver and the
+     * background threads are shared by all of them */
+    private static class Document {
+        final String fileName;
+        final TextStorage buffer;
+        final Group textRoot = new Group();
+        final Cursor cursor;
+        final Finder finder;
+        final Viewport viewport;
+        final LayoutWorker layoutWorker;
+        TextEncoding encoding = TextEncoding.UTF_8;   //how the file was read and will be written
+        EditJournal journal;        //edits since the last save, null if it could not be opened or the file is followed
+        FileFollower follower;      //reads what is appended to the file, null unless it is followed
+        long fileLength = 0;        //bytes of the file that were read
+        long fileModified = 0;      //modification time of the file that was read or saved
+        boolean mapped = false;     //the text that was read is a mapping of the file, so the file must not change under it
+        Object fileKey;             //identity of the file that was mapped, null where the file system has none
+        PieceTable loaded;          //the text as it was read, to tell if it was edited since
+        int top = 0;                //offset of the line at the top of the window when it was last shown
+
+        Document(String fileName, GlyphMetrics glyphs, ForkJoinPool layoutPool, Executor callbacks) {
+            this.fileName = fileName;
+            buffer = new TextStorage(STARTING_TEXT_POSITION_X, STARTING_TEXT_POSITION_Y, glyphs);
+            cursor = new Cursor(buffer, textRoot);
+            finder = new Finder(buffer, callbacks);
+            buffer.addEditListener(finder);
+            viewport = new Viewport(buffer, finder, textRoot);
+            layoutWorker = new LayoutWorker(layoutPool, callbacks);
+        }
+    }
 
     //* Constructor */
     public Editor() {
-        buffer = new TextStorage(STARTING_TEXT_POSITION_X, STARTING_TEXT_POSITION_Y);
+        glyphs = new GlyphCache();
+        fxThread = new Executor() {
+            @Override
+            public void execute(Runnable r) {
+                Platform.runLater(r);
+            }
+        };
+        saver = new FileSaver(fxThread);
+        statistics = new TextStatistics(fxThread);
         
         windowWidth = STARTING_WINDOW_WIDTH;
         windowHeight = STARTING_WINDOW_HEIGHT;
     }
     
     public static double getTextWidth(Text text) {
-        /** Calculates the width of Test objects */
-        return Math.ceil(text.getLayoutBounds().getWidth());
+        /** Calculates the width of Test objects. Not rounded, so that the widths of
+         * single characters add up to the width of the line they are drawn in */
+        return text.getLayoutBounds().getWidth();
     }
     
-    private static int maxMinusMargin(int max) {
+    private int maxMinusMargin(int max) {
         /** Calculates the usable window width after subtracting the margin */
-        return max - MARGIN;
+        return max - margin;
     }
     
-    /** An event handler that moves to cursor to wherever the mouse is clicked. */
+    /** An event handler that moves to cursor to wherever the mouse is pressed, and selects
+     * the text it is dragged over. */
     private class MouseClickEventHandler implements EventHandler<MouseEvent> {
         
         MouseClickEventHandler (Group root) {}
 
         @Override
         public void handle(MouseEvent mouseEvent) {            
+            root.requestFocus();    //takes the keys back from the search field
+            flushTyped();
             double mousePressedX = mouseEvent.getX();
             double mousePressedY = mouseEvent.getY();
 
-            if (buffer.moveToClosestNode(mousePressedX, mousePressedY, scrollOffset)) {
-                if (buffer.leftOfCurrText(mousePressedX)) {
-                    cursor.updateCursor("BEFORE");
-                } else {
-                    cursor.updateCursor("AFTER");
-                }
+            // A press without shift starts a new selection where it lands, a drag or a
+            // shift+press extends the selection from where it was started.
+            long start = System.nanoTime();
+            if (mouseEvent.getEventType() == MouseEvent.MOUSE_PRESSED && !mouseEvent.isShiftDown()) {
+                buffer.clearSelection();
+                cursor.moveCursorTo(mousePressedX + scrollX, mousePressedY + scrollOffset);
+                buffer.startSelection();
             } else {
-                buffer.moveToLastNode();
-                cursor.updateCursor("AFTER");
-            } 
+                buffer.startSelection();
+                cursor.moveCursorTo(mousePressedX + scrollX, mousePressedY + scrollOffset);
+            }
+            metrics.hitTest.record(System.nanoTime() - start);
+            render();
         }
     }
     
@@ -117,30 +237,25 @@ public class Editor extends Application {
 
         @Override
         public void handle(KeyEvent keyEvent) {
+            if (findField.isFocused()) {    //the search field handles its own keys
+                return;
+            }
+            startKeystroke();
             if (keyEvent.getEventType() == KeyEvent.KEY_TYPED && !keyEvent.isShortcutDown()) {
                 // Use the KEY_TYPED event rather than KEY_PRESSED for letter keys, because with
                 // the KEY_TYPED event, javafx handles the "Shift" key and associated
                 // capitalization.
+                // Typed characters are only queued here, and go into the document at the next pulse.
                 String characterTyped = keyEvent.getCharacter();
                 if (Objects.equals(characterTyped, "\r")) {     //special handling for newlines
-                    buffer.addCharToTextStorage(cursor.getX(), cursor.getY(), "\n", textRoot);
+                    typed.append('\n');
                     keyEvent.consume();
-                    buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
-                    cursor.updateCursor("ENTER");
-                    checkSnapback();
-                    scrollBar.setMax(buffer.totalHeightOfLines() - windowHeight);
-                    buffer.clearRedo();
                 } else if (characterTyped.length() > 0 && characterTyped.charAt(0) != 8) {
                     // Processing regular keypresses (letters, symbols, etc)
                     // Ignore control keys, which have non-zero length, as well as the backspace
                     // key, which is represented as a character of value = 8 on Windows.
-                    buffer.addCharToTextStorage(cursor.getX(), cursor.getY(), characterTyped, textRoot);
+                    typed.append(characterTyped);
                     keyEvent.consume();
-                    buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
-                    cursor.updateCursor("AFTER");
-                    checkSnapback();
-                    scrollBar.setMax(buffer.totalHeightOfLines() - windowHeight);
-                    buffer.clearRedo();
                 }
             }
 
@@ -149,41 +264,86 @@ public class Editor extends Application {
                 // events have a code that we can check (KEY_TYPED events don't have an associated
                 // KeyCode).
                 KeyCode code = keyEvent.getCode();
-                if (keyEvent.isShortcutDown()) {        //processing ctrl/cmd keypresses
+                if (keyEvent.isShortcutDown() || keyEvent.isControlDown() || code.isArrowKey() || code == KeyCode.BACK_SPACE) {
+                    flushTyped();       //the queued characters come first
+                }
+                if (code == KeyCode.TAB && keyEvent.isControlDown()) {
+                    keyEvent.consume();     //not a focus traversal
+                    switchDocument(keyEvent.isShiftDown() ? -1 : 1);
+                } else if (keyEvent.isShortcutDown()) {        //processing ctrl/cmd keypresses
                     if (code == KeyCode.S) {
-                        writeFile(fileName);
+                        writeFile(shown);
+                    } else if (code == KeyCode.O) {
+                        openFile();
+                    } else if (code == KeyCode.W) {
+                        closeDocument();
+                    } else if (code == KeyCode.PAGE_DOWN || code == KeyCode.PAGE_UP) {
+                        switchDocument(code == KeyCode.PAGE_DOWN ? 1 : -1);
                     } else if (code == KeyCode.EQUALS) {
-                        buffer.changeFontSize(4, cursor);
-                        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
-                        cursor.updateCursor("AFTER");
+                        changeFontSize(4);
                     } else if (code == KeyCode.MINUS) {
-                        buffer.changeFontSize(-4, cursor);
-                        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
-                        cursor.updateCursor("AFTER");
+                        changeFontSize(-4);
                     } else if (code == KeyCode.Z) {
-                        buffer.undoAction(textRoot);
-                        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+                        long start = System.nanoTime();
+                        buffer.undoAction();
+                        reformatText();
                         cursor.updateCursor("AFTER");
+                        metrics.undo.record(System.nanoTime() - start);
                     } else if (code == KeyCode.Y) {
-                        buffer.redoAction(textRoot);
-                        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+                        long start = System.nanoTime();
+                        buffer.redoAction();
+                        reformatText();
+                        cursor.updateCursor("AFTER");
+                        metrics.undo.record(System.nanoTime() - start);
+                    } else if (code == KeyCode.V) {
+                        paste();
+                    } else if (code == KeyCode.C) {
+                        copy();
+                    } else if (code == KeyCode.L) {
+                        toggleWrapping();
+                    } else if (code == KeyCode.T) {
+                        toggleFollowing();
+                    } else if (code == KeyCode.F) {
+                        openFind();
+                    } else if (code == KeyCode.G) {
+                        findNext(keyEvent.isShiftDown());
+                    } else if (code == KeyCode.X && buffer.hasSelection()) {
+                        copy();
+                        buffer.deleteSelection();
+                        reformatText();
                         cursor.updateCursor("AFTER");
+                        buffer.clearRedo();
+                    }
+                } else if (code == KeyCode.UP || code == KeyCode.DOWN || code == KeyCode.LEFT || code == KeyCode.RIGHT) {
+                    // Shift+arrow keys select from where the cursor was
+                    if (keyEvent.isShiftDown()) {
+                        buffer.startSelection();
+                    } else {
+                        buffer.clearSelection();
+                    }
+                    long start = System.nanoTime();
+                    if (code == KeyCode.UP) {
+                        cursor.moveCursorUp();
+                        metrics.hitTest.record(System.nanoTime() - start);
+                    } else if (code == KeyCode.DOWN) {
+                        cursor.moveCursorDown();
+                        metrics.hitTest.record(System.nanoTime() - start);
+                    } else if (code == KeyCode.LEFT) {
+                        cursor.moveCursorLeft();
+                    } else {
+                        cursor.moveCursorRight();
                     }
-                } else if (code == KeyCode.UP) {
-                    cursor.moveCursorUp(scrollOffset);
-                    checkSnapback();
-                } else if (code == KeyCode.DOWN) {
-                    cursor.moveCursorDown(scrollOffset);
-                    checkSnapback();
-                } else if (code == KeyCode.LEFT) {
-                    cursor.moveCursorLeft();
-                    checkSnapback();
-                } else if (code == KeyCode.RIGHT) {
-                    cursor.moveCursorRight();
                     checkSnapback();
+                    render();
+                } else if (code == KeyCode.F12) {
+                    toggleHud();
                 } else if (code == KeyCode.BACK_SPACE) {
-                    buffer.deleteCharFromTextStorage(textRoot);
-                    buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+                    if (buffer.hasSelection()) {
+                        buffer.deleteSelection();
+                    } else {
+                        buffer.deleteCharFromTextStorage();
+                    }
+                    reformatText();
                     cursor.updateCursor("AFTER");
                     buffer.clearRedo();
                 }
@@ -191,6 +351,20 @@ public class Editor extends Application {
         }
     }
     
+    private void flushTyped() {
+        /* Puts the characters typed since the last pulse into the document as one edit. However fast keys
+         * come in, the document is reflowed, the cursor placed and the window scrolled once per frame */
+        if (typed.length() == 0) {
+            return;
+        }
+        buffer.typeText(typed.toString());
+        typed.setLength(0);
+        reformatText();
+        cursor.updateCursor(buffer.isNewline() ? "ENTER" : "AFTER");
+        checkSnapback();
+        buffer.clearRedo();
+    }
+    
     private void checkSnapback() {
         /* Check after a key press if the cursor is out of screen.
          * If so, jump to the cursor */
@@ -200,13 +374,416 @@ public class Editor extends Application {
             int offset = (int) (Math.round(cursor.getY()) - windowHeight) + (int) Math.round(cursor.lineHeight());
             scrollBar.setValue(offset);
         }
+        // Without wrapping the window also follows the cursor sideways
+        int width = maxMinusMargin(windowWidth);
+        int x = scrollX;
+        if (cursor.getX() < scrollX) {
+            x = Math.max(0, (int) cursor.getX() - width/4);
+        } else if (cursor.getX() > scrollX + width) {
+            x = (int) cursor.getX() - 3*width/4;
+        }
+        if (x != scrollX && !buffer.isWrapping()) {
+            scrollX = x;
+            textRoot.setLayoutX(-1*scrollX);
+            render();
+        }
+    }
+    
+    private void reformatText() {
+        /* Recalculates the line wraps for the current window and redraws the visible lines */
+        long start = System.nanoTime();
+        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        metrics.reflow.record(System.nanoTime() - start);
+        render();
+    }
+    
+    private void render() {
+        /* Draws the visible lines. Wrapping them can change the estimated height of the document */
+        viewport.render(scrollX, scrollOffset, windowWidth, windowHeight);
+        scrollBar.setMax(buffer.totalHeightOfLines() - windowHeight);
+    }
+    
+    private void copy() {
+        if (buffer.hasSelection()) {
+            ClipboardContent content = new ClipboardContent();
+            content.putString(buffer.getSelectedText());
+            Clipboard.getSystemClipboard().setContent(content);
+        }
+    }
+    
+    private void paste() {
+        /* The clipboard text goes in as one edit, so it is reflowed once and undone at once.
+         * It replaces the selection */
+        String pasted = Clipboard.getSystemClipboard().getString();
+        if (pasted == null || pasted.isEmpty()) {
+            return;
+        }
+        buffer.replaceSelection(pasted.replace("\r\n", "\n").replace('\r', '\n'));
+        reformatText();
+        cursor.updateCursor(buffer.isNewline() ? "ENTER" : "AFTER");
+        checkSnapback();
+        buffer.clearRedo();
+    }
+    
+    private void changeFontSize(int increment) {
+        /* Keeps the line at the top of the window in place. Only the lines on screen are wrapped
+         * now, the rest of the document is wrapped in the background */
+        long start = System.nanoTime();
+        int top = buffer.offsetAtY(scrollOffset);
+        buffer.changeFontSize(increment);
+        cursor.changeCursorHeight(buffer.lineHeight());
+        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        scrollTo(top);
+        render();
+        cursor.updateCursor("AFTER");
+        metrics.fontChange.record(System.nanoTime() - start);
+        layoutInBackground();
+    }
+    
+    private void toggleWrapping() {
+        /* Keeps the line at the top of the window in place, like a font change */
+        int top = buffer.offsetAtY(scrollOffset);
+        layoutWorker.cancel();
+        buffer.setWrapping(!buffer.isWrapping());
+        scrollX = 0;
+        textRoot.setLayoutX(0);
+        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        scrollTo(top);
+        render();
+        cursor.updateCursor("AFTER");
+        checkSnapback();
+        layoutInBackground();
+    }
+    
+    private void toggleFollowing() {
+        /* Follows the file shown as other programs append to it, like tail -f, or stops. The cursor
+         * goes to the end, so the window keeps showing the newest lines */
+        Document document = shown;
+        if (document.follower != null) {
+            stopFollowing(document);
+            return;
+        }
+        if (document.journal != null) {
+            // A journal only applies to the length of the file it was made for, so edits of a file
+            // that keeps growing cannot be recovered
+            System.out.println("Edits of " + document.fileName + " are not journaled while it is followed");
+            buffer.removeEditListener(document.journal);
+            document.journal.close();
+            document.journal = null;
+        }
+        layoutWorker.cancel();
+        if (buffer.snapshot() == document.loaded) {
+            // Not edited since it was read or saved, so it is read again into memory, with what was appended since
+            if (findField.isVisible()) {
+                closeFind();
+            }
+            if (!readFile(document, true)) {
+                layoutInBackground();
+                return;
+            }
+        }
+        follow(document);
+        buffer.moveTo(buffer.snapshot().length());
+        reformatText();
+        cursor.updateCursor(buffer.isNewline() ? "ENTER" : "AFTER");
+        checkSnapback();
+        layoutInBackground();
+        stage.setTitle(title());
+    }
+    
+    private void follow(final Document document) {
+        /* Starts reading what is appended to the file after the part that was read */
+        document.follower = new FileFollower(new File(document.fileName), document.fileLength, document.encoding, fxThread,
+                new FileFollower.Listener() {
+            @Override
+            public void appended(CharSequence text) {
+                if ((long) document.buffer.snapshot().length() + text.length() > Integer.MAX_VALUE) {
+                    System.out.println(document.fileName + " has grown too large to follow, it is no longer followed");
+                    stopFollowing(document);
+                    return;
+                }
+                appendText(document, text);
+            }
+
+            @Override
+            public void truncated() {
+                reload(document);
+            }
+        });
+    }
+    
+    private void stopFollowing(Document document) {
+        document.follower.stop();
+        document.follower = null;
+        if (document == shown) {
+            stage.setTitle(title());
+        }
+    }
+    
+    private void appendText(Document document, CharSequence text) {
+        /* Only the appended lines are wrapped, when they are shown or in the background. The window
+         * follows them down if the cursor was at the end */
+        TextStorage appendedTo = document.buffer;
+        boolean atEnd = appendedTo.isEnd() && !appendedTo.hasSelection();
+        appendedTo.appendText(text);
+        if (atEnd) {
+            appendedTo.moveTo(appendedTo.snapshot().length());
+        }
+        if (document != shown) {
+            appendedTo.reformatText(maxMinusMargin(windowWidth), windowHeight);
+            return;
+        }
+        reformatText();
+        if (atEnd) {
+            cursor.updateCursor(buffer.isNewline() ? "ENTER" : "AFTER");
+            checkSnapback();
+        }
+        layoutInBackground();
+    }
+    
+    private void reload(Document document) {
+        /* The followed file got shorter, so it was rotated or written over. It is read again from
+         * the start and followed from there, and edits that were not saved are dropped */
+        System.out.println(document.fileName + " got shorter, reading it again");
+        if (document == shown && findField.isVisible()) {
+            closeFind();
+        }
+        document.finder.clear();
+        document.layoutWorker.cancel();
+        if (!readFile(document, true)) {
+            // Keeps the text it had, no longer followed
+            document.follower = null;
+            if (document == shown) {
+                stage.setTitle(title());
+                layoutInBackground();
+            }
+            return;
+        }
+        follow(document);
+        if (document != shown) {
+            return;
+        }
+        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        scrollTo(buffer.snapshot().length());
+        render();
+        cursor.updateCursor(buffer.isNewline() ? "ENTER" : "AFTER");
+        checkSnapback();
+        layoutInBackground();
+    }
+    
+    private void scrollTo(int offset) {
+        /* Scrolls so that the line holding offset is at the top of the window */
+        scrollBar.setMax(buffer.totalHeightOfLines() - windowHeight);
+        double y = Math.max(0, Math.min(buffer.yOfOffset(offset), scrollBar.getMax()));
+        scrollOffset = (int) y;
+        textRoot.setLayoutY(-1*scrollOffset);
+        scrollBar.setValue(y);
+    }
+    
+    private void startKeystroke() {
+        /* Keystroke to paint is measured from the first key event until the pulse that shows it */
+        if (keyPressedAt == 0) {
+            keyPressedAt = System.nanoTime();
+            allocatedAtKey = Metrics.allocatedBytes();
+            linesAtKey = buffer.linesWrapped();
+            textAtKey = buffer.snapshot();
+        }
+        nextPulse.start();      //asks for a pulse, like any running animation
     }
     
-    private void writeFile(String outputFileName) {       
-        buffer.writeFile(outputFileName);
+    private void keystrokePainted() {
+        /* Called once the pulse after a key event has laid out the scene and handed it over to be drawn */
+        if (keyPressedAt == 0) {
+            return;
+        }
+        metrics.keystrokeToPaint.record(System.nanoTime() - keyPressedAt);
+        if (buffer.snapshot() != textAtKey) {
+            metrics.recordEdit(buffer.linesWrapped() - linesAtKey, Metrics.allocatedBytes() - allocatedAtKey);
+        }
+        keyPressedAt = 0;
+        textAtKey = null;
+    }
+    
+    private void toggleHud() {
+        hud.setVisible(!hud.isVisible());
+        if (hud.isVisible()) {
+            refreshHud();
+            hudRefresh.play();
+        } else {
+            hudRefresh.stop();
+        }
     }
     
-    private boolean readFile(String inputFileName) {
+    private void refreshHud() {
+        /* The overlay sits in the bottom left corner, above the text. The document is counted from a snapshot
+         * on another thread, and the last counts are shown until the new ones are in */
+        statistics.count(buffer.snapshot(), new TextStatistics.Listener() {
+            @Override
+            public void counted(TextStatistics.Counts newCounts) {
+                counts = newCounts;
+                if (hud.isVisible()) {
+                    refreshHud();
+                }
+            }
+        });
+        metrics.recordGlyphHitRate(glyphs.hitRate());
+        hudText.setText(metrics.report() + (counts == null ? "" : "\n" + counts));
+        hudBackground.setWidth(hudText.getLayoutBounds().getWidth() + 2*margin);
+        hudBackground.setHeight(hudText.getLayoutBounds().getHeight() + 2*margin);
+        hud.setLayoutX(0);
+        hud.setLayoutY(windowHeight - hudBackground.getHeight());
+    }
+    
+    private void openFind() {
+        findOrigin = buffer.getCurrentPos();
+        findField.setVisible(true);
+        findField.requestFocus();
+        findField.selectAll();
+    }
+    
+    private void closeFind() {
+        findField.setVisible(false);
+        root.requestFocus();
+        finder.clear();
+        stage.setTitle(title());
+        render();
+    }
+    
+    private void find(String pattern) {
+        /* Searches again as the pattern is typed. Matches show up as they are found, and the first one
+         * after where the search was opened is selected */
+        selectFirstMatch = true;
+        finder.find(pattern, new Finder.Listener() {
+            @Override
+            public void found(int count) {
+                int index = finder.first(findOrigin);
+                if (selectFirstMatch && index < count) {
+                    selectMatch(finder.match(index));
+                }
+                stage.setTitle(title() + " - " + count + " matches so far");
+                render();
+            }
+
+            @Override
+            public void finished(int count) {
+                if (selectFirstMatch && count > 0) {
+                    selectMatch(finder.match(0));
+                }
+                stage.setTitle(title() + " - " + count + " matches");
+                render();
+            }
+        });
+        if (pattern.isEmpty()) {
+            stage.setTitle(title());
+        }
+        render();
+    }
+    
+    private void findNext(boolean backwards) {
+        /* A selected match counts as the one to go on from */
+        int from = buffer.hasSelection() ? buffer.selectionStart() : buffer.getCurrentPos();
+        int match = backwards ? finder.previous(from) : finder.next(buffer.hasSelection() ? from + 1 : from);
+        if (match != -1) {
+            selectMatch(match);
+        }
+    }
+    
+    private void selectMatch(int match) {
+        selectFirstMatch = false;
+        buffer.clearSelection();
+        buffer.moveTo(match);
+        buffer.startSelection();
+        buffer.moveTo(match + finder.patternLength());
+        cursor.updateCursor("AFTER");
+        checkSnapback();
+        render();
+    }
+    
+    private void resizeText() {
+        /* Wraps the lines on screen at the new width right away. Until the rest of the document is
+         * wrapped its height is estimated, and the background layout waits for the resizing to settle */
+        layoutWorker.cancel();
+        int top = buffer.offsetAtY(scrollOffset);
+        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        scrollTo(top);
+        render();
+        cursor.updateCursor("AFTER");
+        resizeSettled.playFromStart();
+    }
+    
+    private void layoutInBackground() {
+        /* Wraps the runs of lines that were left for later on other threads. A result from an older
+         * width is dropped, and one that missed an edit is made again */
+        layoutWorker.start(buffer, new LayoutWorker.Listener() {
+            @Override
+            public void finished(LayoutWorker.Result result) {
+                // Real line counts replace estimates above the window, so the window and cursor follow their text
+                int top = buffer.offsetAtY(scrollOffset);
+                double cursorY = buffer.getCurrY();
+                if (!result.apply()) {
+                    layoutInBackground();
+                    return;
+                }
+                scrollTo(top);
+                render();
+                cursor.shiftY(buffer.getCurrY() - cursorY);
+            }
+        });
+    }
+    
+    private void writeFile(final Document document) {
+        /* The document is saved from a snapshot on another thread, so editing can go on meanwhile */
+        if (changedUnderMapping(document)) {
+            readAgain(document);
+            return;
+        }
+        if (document.buffer.isEmpty()) {
+            System.out.println("There is nothing to write.");
+            return;
+        }
+        final EditJournal journal = document.journal;
+        final long journaled = journal == null ? 0 : journal.mark();
+        final PieceTable snapshot = document.buffer.snapshot();
+        saver.save(snapshot, document.fileName, document.encoding, new FileSaver.Listener() {
+            @Override
+            public void progress(double fraction) {
+                stage.setTitle(String.format("%s - saving %.0f%%", title(), 100*fraction));
+            }
+
+            @Override
+            public void saved(String fileName) {
+                if (journal != null) {
+                    journal.saved(journaled, new File(fileName));
+                }
+                document.fileLength = new File(fileName).length();
+                document.fileModified = new File(fileName).lastModified();
+                document.loaded = snapshot;
+                if (document.follower != null) {
+                    // The saved file is the document, so following goes on from its end
+                    document.follower.stop();
+                    follow(document);
+                }
+                stage.setTitle(title());
+                System.out.println("Successfully saved file to " + fileName);
+            }
+
+            @Override
+            public void failed(String fileName, IOException ioException) {
+                stage.setTitle(title());
+                System.out.println("Error when saving; exception was: " + ioException);
+                if (document.mapped) {
+                    System.out.println(fileName + " is mapped while it is open, and some systems do not let a mapped file be replaced."
+                            + " With -Deditor.mapBytes larger than the file it is read into memory instead");
+                }
+            }
+        });
+    }
+    
+    private boolean readFile(Document document, boolean followed) {
+        /* Files up to MAP_BYTES are read into memory, larger ones are mapped. A followed file is always
+         * read, since a log that is rotated by truncating it would take the mapped pages away from under
+         * the text. Returns false if the file does not exist or a followed file is too large to read again */
+        String inputFileName = document.fileName;
         try {
             // Check to make sure that the input file exists!
             if (!inputFileName.endsWith(".txt")) {
@@ -217,40 +794,255 @@ public class Editor extends Application {
             if (!inputFile.exists()) {
                 return false;
             }
-            FileReader reader = new FileReader(inputFile);
-
-            BufferedReader bufferedReader = new BufferedReader(reader);
-
-            int intRead = -1;
-            // Keep reading from the file input until read() returns -1, which means the end of the file was reached.
-            
-            while ((intRead = bufferedReader.read()) != -1) {
-                // The integer read can be cast to a char, because we're assuming ASCII.
-                char charRead = (char) intRead;
-                buffer.addCharToTextStorage(0.0, 0.0, String.valueOf(charRead), textRoot); //the starting x and y do not matter because it will be reformatted                     
+            // A large file is memory-mapped instead of read. ASCII and Latin-1 characters are only
+            // read from it when they are wrapped or shown, other text is decoded once.
+            BasicFileAttributes attributes = Files.readAttributes(inputFile.toPath(), BasicFileAttributes.class);
+            FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                // Huge files are opened read only before they get here, so only a followed
+                // file can have grown this large. The document keeps the text it has
+                channel.close();
+                if (followed) {
+                    System.out.println("File " + inputFileName + " is too large to read again, it is no longer followed");
+                    return false;
+                }
+                System.out.println("File " + inputFileName + " is too large to open");
+                System.exit(1);
             }
-
-            bufferedReader.close();
-        } catch (FileNotFoundException fileNotFoundException) {
-            System.out.println("File not found! Exception was: " + fileNotFoundException);
+            ByteBuffer contents;
+            document.mapped = !followed && channel.size() > MAP_BYTES;
+            if (!document.mapped) {
+                contents = ByteBuffer.allocate((int) channel.size());
+                while (contents.hasRemaining()) {
+                    if (channel.read(contents) < 0) {
+                        break;
+                    }
+                }
+                contents.flip();
+            } else {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            channel.close();
+            TextEncoding.Decoded decoded = TextEncoding.decode(contents);
+            document.encoding = decoded.encoding;
+            document.fileLength = contents.limit();
+            document.fileModified = attributes.lastModifiedTime().toMillis();
+            document.fileKey = attributes.fileKey();
+            document.buffer.loadText(decoded.text);
+            document.loaded = document.buffer.snapshot();
         } catch (IOException ioException) {
             System.out.println("Error when copying; exception was: " + ioException);
         }
         return true;
     }
     
+    private static boolean changedUnderMapping(Document document) {
+        /* True if the file that the text of document is mapped from was written over or truncated since
+         * it was read. A file that was deleted, or replaced by another one as a save does, leaves the
+         * mapped pages as they were */
+        if (!document.mapped) {
+            return false;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(new File(document.fileName).toPath(), BasicFileAttributes.class);
+            if (document.fileKey != null && !document.fileKey.equals(attributes.fileKey())) {
+                return false;
+            }
+            return attributes.size() != document.fileLength || attributes.lastModifiedTime().toMillis() != document.fileModified;
+        } catch (IOException ioException) {
+            return false;
+        }
+    }
+    
+    private void readAgain(Document document) {
+        /* The text mapped from the file changed with it, and the part past a truncation is gone, so the
+         * file is read again before any more of it is used. Edits that were not saved are dropped */
+        System.out.println(document.fileName + " was changed by another program while it was open, reading it again."
+                + " Edits that were not saved are lost");
+        if (document == shown && findField.isVisible()) {
+            closeFind();
+        }
+        document.finder.clear();
+        document.layoutWorker.cancel();
+        if (document.journal != null) {
+            document.buffer.removeEditListener(document.journal);
+            document.journal.close();
+            document.journal = null;
+        }
+        if (document.follower != null) {
+            stopFollowing(document);
+        }
+        readFile(document, false);
+        openJournal(document);
+        if (document != shown) {
+            return;
+        }
+        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        scrollTo(buffer.snapshot().length());
+        render();
+        cursor.updateCursor(buffer.isNewline() ? "ENTER" : "AFTER");
+        layoutInBackground();
+    }
+    
+    private void openJournal(Document document) {
+        /* Replays the edits that were not saved before the editor last stopped */
+        try {
+            document.journal = EditJournal.open(new File(document.fileName), document.buffer);
+            if (document.journal.recovered() > 0) {
+                System.out.println("Recovered " + document.journal.recovered() + " unsaved edits from "
+                        + EditJournal.journalOf(document.fileName));
+            }
+        } catch (IOException ioException) {
+            System.out.println("Error when opening the edit journal; exception was: " + ioException);
+        }
+    }
+    
+    private Document openDocument(String fileName) {
+        /* Returns the document of fileName, reading it if it is not open yet. A file is only opened once,
+         * since two documents would write over each other's journal. A file larger than HUGE_FILE_BYTES
+         * is shown read-only in a window of its own instead, and null is returned */
+        if (new File(fileName).length() > HUGE_FILE_BYTES) {
+            openHugeFile(new File(fileName));
+            return null;
+        }
+        for (Document document : documents) {
+            if (new File(document.fileName).getAbsoluteFile().equals(new File(fileName).getAbsoluteFile())) {
+                return document;
+            }
+        }
+        Document document = new Document(fileName, glyphs.newMetrics(), layoutPool, fxThread);
+        //if the file is read in successfully or edits were recovered, wrap the text
+        boolean opened = readFile(document, false);
+        openJournal(document);
+        if (opened || !document.buffer.isEmpty()) {
+            // Only the first run is wrapped here. Once the document is shown, its LayoutWorker wraps
+            // the rest in parallel over all cores, and the scroll bar becomes exact when it is done
+            document.buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        }
+        document.cursor.setBlinking(false);
+        documents.add(document);
+        return document;
+    }
+    
+    private void openHugeFile(File file) {
+        /* Offsets into it do not fit an int, so it cannot be edited */
+        try {
+            new HugeFileViewer(new HugeFile(file), glyphs.newMetrics(), fxThread).show();
+        } catch (IOException ioException) {
+            System.out.println("Error when opening " + file + "; exception was: " + ioException);
+        }
+    }
+    
+    private void openFile() {
+        /* Asks for a file to open next to the one shown, and shows it */
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Open");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text files", "*.txt"));
+        chooser.setInitialDirectory(new File(shown.fileName).getAbsoluteFile().getParentFile());
+        File file = chooser.showOpenDialog(stage);
+        if (file == null) {
+            return;
+        } else if (!file.getName().endsWith(".txt")) {
+            System.out.println("Unable to open file name " + file);
+            return;
+        }
+        Document document = openDocument(file.getPath());
+        if (document != null) {
+            show(document);
+        }
+    }
+    
+    private void show(Document document) {
+        /* The document that was shown stops its background layout and gives up its Texts, so a hidden
+         * document only holds its text. The one shown is wrapped at the width of the window, which may
+         * have changed while it was hidden */
+        if (document == shown) {
+            return;
+        }
+        if (shown != null) {
+            findField.setVisible(false);
+            finder.clear();
+            layoutWorker.cancel();
+            shown.top = buffer.offsetAtY(scrollOffset);
+            viewport.release();
+            cursor.setBlinking(false);
+            root.getChildren().remove(textRoot);
+        }
+        shown = document;
+        buffer = document.buffer;
+        cursor = document.cursor;
+        viewport = document.viewport;
+        textRoot = document.textRoot;
+        finder = document.finder;
+        layoutWorker = document.layoutWorker;
+        root.getChildren().add(0, textRoot);
+        root.requestFocus();
+        scrollX = 0;
+        textRoot.setLayoutX(0);
+        cursor.setBlinking(true);
+        buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+        scrollTo(document.top);
+        render();
+        cursor.updateCursor("AFTER");
+        stage.setTitle(title());
+        layoutInBackground();
+    }
+    
+    private void switchDocument(int step) {
+        /* Shows the document step places after the one shown, going around */
+        if (documents.size() > 1) {
+            int index = documents.indexOf(shown) + step;
+            show(documents.get(Math.floorMod(index, documents.size())));
+        }
+    }
+    
+    private void closeDocument() {
+        /* Unsaved edits stay in the journal, so they come back when the file is opened again.
+         * Closing the last document closes the window */
+        if (documents.size() == 1) {
+            Platform.exit();
+            return;
+        }
+        Document closing = shown;
+        switchDocument(1);
+        documents.remove(closing);
+        if (closing.journal != null) {
+            closing.journal.close();
+        }
+        if (closing.follower != null) {
+            closing.follower.stop();
+        }
+        stage.setTitle(title());
+    }
+    
+    private String title() {
+        /* The name of the file shown and, with several open, which one it is */
+        String title = "Text Editor - " + new File(shown.fileName).getName();
+        if (documents.size() > 1) {
+            title += " (" + (documents.indexOf(shown) + 1) + "/" + documents.size() + ")";
+        }
+        if (shown.follower != null) {
+            title += " - following";
+        }
+        return title;
+    }
+    
     @Override
     public void start(Stage primaryStage) {
+        stage = primaryStage;
         // Create a Node that will be the parent of all things displayed on the screen.
         root = new Group();
-        textRoot = new Group();
-        root.getChildren().add(textRoot);
         // The Scene represents the window: its height and width will be the height and width
         // of the window displayed.
         Scene scene = new Scene(root, windowWidth, windowHeight, Color.WHITE);
         
-        //Create cursor
-        cursor = new Cursor(buffer, textRoot);
+        resizeSettled = new PauseTransition(RESIZE_DELAY);
+        resizeSettled.setOnFinished(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                layoutInBackground();
+            }
+        });
         
         //Create scroll bar
         scrollBar = new ScrollBar();
@@ -266,29 +1058,114 @@ public class Editor extends Application {
                 Number newValue) {
                 scrollOffset = newValue.intValue();
                 textRoot.setLayoutY(-1*scrollOffset);
+                render();
             }
         });
         
         int usableScreenWidth = windowWidth - (int) scrollBar.getLayoutBounds().getWidth();
-        MARGIN = windowWidth - usableScreenWidth;
+        margin = windowWidth - usableScreenWidth;
         scrollBar.setLayoutX(usableScreenWidth);
         
-        //Input text file
+        //Create the performance overlay, toggled with F12, and the periodic metrics log line
+        hudText = new Text();
+        hudText.setFont(Font.font("Monospaced", 11));
+        hudText.setTextOrigin(VPos.TOP);
+        hudText.setX(margin);
+        hudText.setY(margin);
+        hudBackground = new Rectangle();
+        hudBackground.setFill(Color.rgb(255, 255, 224, 0.9));
+        hud = new Group(hudBackground, hudText);
+        hud.setVisible(false);
+        hud.setMouseTransparent(true);
+        root.getChildren().add(hud);
+        hudRefresh = new Timeline(new KeyFrame(Duration.millis(500), new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                refreshHud();
+            }
+        }));
+        hudRefresh.setCycleCount(Timeline.INDEFINITE);
+        if (METRICS_SECONDS > 0) {
+            Timeline metricsLog = new Timeline(new KeyFrame(Duration.seconds(METRICS_SECONDS), new EventHandler<ActionEvent>() {
+                private long loggedKeystrokes = 0;
+                
+                @Override
+                public void handle(ActionEvent event) {
+                    // Nothing is printed while no keys are pressed
+                    if (metrics.keystrokeToPaint.count() != loggedKeystrokes) {
+                        loggedKeystrokes = metrics.keystrokeToPaint.count();
+                        metrics.recordGlyphHitRate(glyphs.hitRate());
+                        System.out.println(metrics.logLine());
+                    }
+                }
+            }));
+            metricsLog.setCycleCount(Timeline.INDEFINITE);
+            metricsLog.play();
+        }
+        // Animations run at the start of a pulse, before the scene is laid out, and what they post with
+        // runLater runs once the pulse is over
+        nextPulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                pulseStartedAt = System.nanoTime();
+                flushTyped();
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        metrics.pulse.record(System.nanoTime() - pulseStartedAt);
+                        keystrokePainted();
+                    }
+                });
+            }
+        };
+        
+        //Create the search field, shown by Ctrl/Cmd+F in the top right corner
+        findField = new TextField();
+        findField.setPromptText("Find");
+        findField.setPrefWidth(FIND_WIDTH);
+        findField.setLayoutX(usableScreenWidth - FIND_WIDTH);
+        findField.setVisible(false);
+        root.getChildren().add(findField);
+        findField.textProperty().addListener(new ChangeListener<String>() {
+            @Override
+            public void changed(ObservableValue<? extends String> observableValue, String oldText, String newText) {
+                find(newText);
+            }
+        });
+        findField.setOnKeyPressed(new EventHandler<KeyEvent>() {
+            @Override
+            public void handle(KeyEvent keyEvent) {
+                if (keyEvent.getCode() == KeyCode.ENTER) {
+                    findNext(keyEvent.isShiftDown());
+                } else if (keyEvent.getCode() == KeyCode.G && keyEvent.isShortcutDown()) {
+                    findNext(keyEvent.isShiftDown());
+                } else if (keyEvent.getCode() == KeyCode.ESCAPE) {
+                    closeFind();
+                }
+            }
+        });
+        findField.addEventHandler(MouseEvent.ANY, new EventHandler<MouseEvent>() {
+            @Override
+            public void handle(MouseEvent mouseEvent) {
+                mouseEvent.consume();   //clicks in the search field do not move the cursor
+            }
+        });
+        
+        //Input text files, the first one is shown
         List<String> inputs = getParameters().getRaw();
         if (inputs.isEmpty()) {
-            System.out.println("Expected usage: java editor.Editor <source filename> where <source filename> is in the form of *.txt");
+            System.out.println("Expected usage: java editor.Editor <source filename>... where each <source filename> is in the form of *.txt");
             System.exit(1);
         }
-        fileName = inputs.get(0);
-        
-        //if the file is read in successfully, reformat the text and update the cursor
-        if (readFile(fileName)) {
-            buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
-            cursor.updateCursor("AFTER");
+        for (String input : inputs) {
+            openDocument(input);
+        }
+        if (documents.isEmpty()) {  //only huge files, which have their own windows
+            return;
         }
-        
         scrollBar.setMin(0);
-        scrollBar.setMax(buffer.totalHeightOfLines() - windowHeight);
+        show(documents.get(0));
 
         EventHandler<KeyEvent> keyEventHandler =
                 new KeyEventHandler(windowWidth, windowHeight);
@@ -296,9 +1173,9 @@ public class Editor extends Application {
         scene.setOnKeyTyped(keyEventHandler);
         scene.setOnKeyPressed(keyEventHandler);
         
-        scene.setOnMouseClicked(new MouseClickEventHandler(root));        
-        
-        primaryStage.setTitle("Text Editor");
+        EventHandler<MouseEvent> mouseEventHandler = new MouseClickEventHandler(root);
+        scene.setOnMousePressed(mouseEventHandler);
+        scene.setOnMouseDragged(mouseEventHandler);        
         
         // ChangeListeners for window re-sizing
         scene.widthProperty().addListener(new ChangeListener<Number>() {
@@ -308,9 +1185,10 @@ public class Editor extends Application {
                     Number newScreenWidth) {
                 // Re-compute window width.
                 windowWidth = newScreenWidth.intValue();
-                buffer.reformatText(maxMinusMargin(windowWidth), windowHeight);
+                resizeText();
                 int usableScreenWidth = windowWidth - (int) scrollBar.getLayoutBounds().getWidth();
                 scrollBar.setLayoutX(usableScreenWidth);
+                findField.setLayoutX(usableScreenWidth - FIND_WIDTH);
             }
         });
         scene.heightProperty().addListener(new ChangeListener<Number>() {
@@ -319,8 +1197,24 @@ public class Editor extends Application {
                     Number oldScreenHeight,
                     Number newScreenHeight) {
                 windowHeight = newScreenHeight.intValue();
-                scrollBar.setMax(buffer.totalHeightOfLines() - windowHeight);
                 scrollBar.setPrefHeight(windowHeight);
+                render();
+            }
+        });
+
+        // Coming back from another program, which may have written over a mapped file
+        primaryStage.focusedProperty().addListener(new ChangeListener<Boolean>() {
+            @Override public void changed(
+                    ObservableValue<? extends Boolean> observableValue,
+                    Boolean wasFocused,
+                    Boolean focused) {
+                if (focused) {
+                    for (Document document : documents) {
+                        if (changedUnderMapping(document)) {
+                            readAgain(document);
+                        }
+                    }
+                }
             }
         });
 
@@ -329,6 +1223,16 @@ public class Editor extends Application {
         primaryStage.show();
     }
 
+    @Override
+    public void stop() {
+        flushTyped();
+        for (Document document : documents) {
+            if (document.journal != null) {
+                document.journal.close();
+            }
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,144 @@
+package editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/** FileFollower watches a file that other programs append to, like a log, and reads only the
+* bytes written after the offset it has read up to. It looks at the size of the file a few times
+* a second on a background thread shared by every follower, which costs a stat when nothing
+* was written. The new bytes are decoded in the encoding the file was read with, and a
+* character cut in two by a write is finished by the next one. A file that got shorter was
+* rotated or written over, so it is reported and no longer followed. */
+public class FileFollower {
+    private static final long POLL_INTERVAL = 250;     //milliseconds between looks at the file
+    private static final int READ_SIZE = 1 << 16;      //bytes read at a time
+    private static final long MOST_PER_POLL = 8 << 20; //bytes handed over at once, the rest waits for the next poll
+
+    /** Receives what happened to the file. Called with the callback executor given to the constructor */
+    public interface Listener {
+        void appended(CharSequence text);
+        void truncated();
+    }
+
+    /* One thread looks at the files of every followed document */
+    private static final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "file follower");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final Executor callbacks;
+    private final Listener listener;
+    private final CharsetDecoder decoder;   //only used on the poller thread, like position and bytes
+    private long position;                  //bytes of the file read so far
+    private final ByteBuffer bytes = ByteBuffer.allocate(READ_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(READ_SIZE);
+    private final ScheduledFuture<?> polls;
+    private volatile boolean stopped = false;
+
+    /** Constructor. Starts following file from position, the length that was read already */
+    public FileFollower(File file, long position, TextEncoding encoding, Executor callbacks, Listener listener) {
+        this.file = file;
+        this.position = position;
+        this.callbacks = callbacks;
+        this.listener = listener;
+        decoder = encoding.charset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        polls = poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        /* Call on the callback thread. Nothing is reported after it, even text that was read already */
+        stopped = true;
+        polls.cancel(false);
+    }
+
+    private void poll() {
+        if (!file.exists()) {
+            return;
+        }
+        StringBuilder appended = new StringBuilder();
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < position) {
+                    polls.cancel(false);
+                    report(null);
+                    return;
+                }
+                read(channel, Math.min(size, position + MOST_PER_POLL), appended);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException ioException) {
+            System.out.println("Error when following " + file + "; exception was: " + ioException);
+        }
+        if (appended.length() > 0) {
+            report(appended.toString());
+        }
+    }
+
+    private void read(FileChannel channel, long end, StringBuilder appended) throws IOException {
+        /* Bytes of a character that is not complete yet stay in bytes for the next read */
+        while (position < end) {
+            bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + end - position));
+            int count = channel.read(bytes, position);
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+            bytes.flip();
+            while (true) {
+                CoderResult result = decoder.decode(bytes, chars, false);
+                chars.flip();
+                appended.append(chars);
+                chars.clear();
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+            bytes.compact();
+        }
+    }
+
+    private void report(final CharSequence appended) {
+        /* null for a file that got shorter */
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (stopped) {
+                    return;
+                } else if (appended == null) {
+                    stopped = true;
+                    listener.truncated();
+                } else {
+                    listener.appended(appended);
+                }
+            }
+        });
+    }
+}
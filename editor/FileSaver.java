@@ -0,0 +1,98 @@
+package editor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** FileSaver writes snapshots of a document on a background thread. The text goes to a
+* temporary file next to the target, which is synced to disk and then moved over the
+* target, so a crash in the middle of a save leaves either the old or the new file. The
+* text is encoded the way the file was read. */
+public class FileSaver {
+    private static final int PROGRESS_STEP = 1 << 20;  //characters written between progress reports
+
+    /** Receives the progress of a save. Called with the callback executor given to the constructor */
+    public interface Listener {
+        void progress(double fraction);
+        void saved(String fileName);
+        void failed(String fileName, IOException exception);
+    }
+
+    private final ExecutorService writer;
+    private final Executor callbacks;
+
+    /** Constructor */
+    public FileSaver(Executor callbacks) {
+        this.callbacks = callbacks;
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "file saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void save(final PieceTable snapshot, final String fileName, final TextEncoding encoding, final Listener listener) {
+        /* Saves are done one at a time in the order they were asked for */
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(snapshot, fileName, encoding, listener);
+                    callbacks.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.saved(fileName);
+                        }
+                    });
+                } catch (final IOException ioException) {
+                    callbacks.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.failed(fileName, ioException);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void write(PieceTable snapshot, String fileName, TextEncoding encoding, final Listener listener) throws IOException {
+        File target = new File(fileName).getAbsoluteFile();
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            TextEncoding.Encoder out = encoding.newEncoder(stream.getChannel());
+            int length = snapshot.length();
+            for (int start = 0; start < length; start += PROGRESS_STEP) {
+                int end = Math.min(length, start + PROGRESS_STEP);
+                out.write(snapshot, start, end);
+                final double fraction = (double) end/length;
+                callbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.progress(fraction);
+                    }
+                });
+            }
+            out.finish();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
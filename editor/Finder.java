@@ -0,0 +1,247 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** Finder finds every occurrence of a pattern in a TextStorage with Boyer-Moore-Horspool.
+* The search runs on a background thread over a snapshot, a chunk at a time, and the matches
+* of each chunk are handed over as soon as they are found. After that the matches follow the
+* edits: the ones an edit touched are dropped, the ones after it are moved, and only the text
+* around the edit is searched again. Matches may overlap, so an edit cannot change the
+* matches that are out of the pattern's reach. */
+public class Finder implements TextStorage.EditListener {
+    private static final int CHUNK_SIZE = 1 << 20;  //characters searched between reports
+
+    /** Receives the progress of a search. Called with the callback executor given to the constructor */
+    public interface Listener {
+        void found(int count);
+        void finished(int count);
+    }
+
+    /** One search over a snapshot. Only cancelled is touched by the search thread */
+    private class Search implements Runnable {
+        private final PieceTable snapshot;
+        private final String pattern;
+        private final int[] skip;
+        private final Listener listener;
+        private final ArrayList<int[]> edits = new ArrayList<int[]>();  //{offset, removed, inserted} of the edits since snapshot
+        private volatile boolean cancelled = false;
+
+        Search(PieceTable snapshot, String pattern, int[] skip, Listener listener) {
+            this.snapshot = snapshot;
+            this.pattern = pattern;
+            this.skip = skip;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            for (int start = 0; start < snapshot.length() && !cancelled; start += CHUNK_SIZE) {
+                final int[] found = search(snapshot, start, start + CHUNK_SIZE, pattern, skip);
+                callbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (current == Search.this) {
+                            addMatches(found, edits);
+                            listener.found(count);
+                        }
+                    }
+                });
+            }
+            callbacks.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (current == Search.this) {
+                        current = null;
+                        listener.finished(count);
+                    }
+                }
+            });
+        }
+    }
+
+    /* One search thread is shared by the Finders of every open document */
+    private static final ExecutorService searcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "finder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final TextStorage buffer;
+    private final Executor callbacks;
+    private String pattern = "";
+    private int[] skip;                     //how far the pattern moves when a character is under its last position
+    private int[] matches = new int[16];    //offsets of the matches in order, only used on the callback thread
+    private int count = 0;
+    private Search current;                 //search that is running, null if there is none
+
+    /** Constructor. Register the Finder as an EditListener of buffer so the matches follow the edits */
+    public Finder(TextStorage buffer, Executor callbacks) {
+        this.buffer = buffer;
+        this.callbacks = callbacks;
+    }
+
+    public void find(String pattern, Listener listener) {
+        /* Call on the callback thread. Drops the matches of the last pattern, an empty pattern finds nothing */
+        clear();
+        if (pattern.isEmpty()) {
+            return;
+        }
+        this.pattern = pattern;
+        skip = skipTable(pattern);
+        current = new Search(buffer.snapshot(), pattern, skip, listener);
+        searcher.execute(current);
+    }
+
+    public void clear() {
+        if (current != null) {
+            current.cancelled = true;
+            current = null;
+        }
+        pattern = "";
+        count = 0;
+    }
+
+    public boolean isSearching() {
+        return current != null;
+    }
+
+    public int patternLength() {
+        return pattern.length();
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int match(int index) {
+        return matches[index];
+    }
+
+    public int first(int offset) {
+        /* Returns the index of the first match that starts at or after offset, count() if there is none */
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (matches[mid] < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int next(int offset) {
+        /* Returns the first match at or after offset, going around to the first one. -1 if there are none */
+        if (count == 0) {
+            return -1;
+        }
+        int index = first(offset);
+        return index < count ? matches[index] : matches[0];
+    }
+
+    public int previous(int offset) {
+        /* Returns the last match before offset, going around to the last one. -1 if there are none */
+        if (count == 0) {
+            return -1;
+        }
+        int index = first(offset) - 1;
+        return index >= 0 ? matches[index] : matches[count - 1];
+    }
+
+    @Override
+    public void edited(int offset, int removed, CharSequence inserted) {
+        /* Matches that overlap the removed text are dropped, and the text that could hold new ones is searched */
+        if (pattern.isEmpty()) {
+            return;
+        }
+        if (current != null) {
+            current.edits.add(new int[] {offset, removed, inserted.length()});
+        }
+        int from = first(offset - pattern.length() + 1);
+        int to = first(offset + removed);
+        int[] found = search(buffer.snapshot(), Math.max(0, offset - pattern.length() + 1), offset + inserted.length(), pattern, skip);
+        int tail = count - to;
+        int newCount = from + found.length + tail;
+        if (newCount > matches.length) {
+            matches = Arrays.copyOf(matches, Math.max(newCount, 2*matches.length));
+        }
+        System.arraycopy(matches, to, matches, from + found.length, tail);
+        System.arraycopy(found, 0, matches, from, found.length);
+        for (int i = from + found.length; i < newCount; i++) {
+            matches[i] += inserted.length() - removed;
+        }
+        count = newCount;
+    }
+
+    private void addMatches(int[] found, ArrayList<int[]> edits) {
+        /* Moves matches in the snapshot through the edits made since, then merges them with the others */
+        int length = 0;
+        for (int match : found) {
+            boolean kept = true;
+            for (int[] edit : edits) {
+                if (match > edit[0] - pattern.length() && match < edit[0] + edit[1]) {
+                    kept = false;
+                    break;
+                } else if (match >= edit[0] + edit[1]) {
+                    match += edit[2] - edit[1];
+                }
+            }
+            if (kept) {
+                found[length] = match;
+                length += 1;
+            }
+        }
+        int[] merged = new int[Math.max(16, count + length)];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < count + length; k++) {
+            if (j == length || (i < count && matches[i] < found[j])) {
+                merged[k] = matches[i];
+                i += 1;
+            } else {
+                merged[k] = found[j];
+                j += 1;
+            }
+        }
+        matches = merged;
+        count += length;
+    }
+
+    private static int[] skipTable(String pattern) {
+        int last = pattern.length() - 1;
+        int[] skip = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(skip, pattern.length());
+        for (int i = 0; i < last; i++) {
+            skip[pattern.charAt(i)] = last - i;
+        }
+        return skip;
+    }
+
+    static int[] search(PieceTable text, int from, int to, String pattern, int[] skip) {
+        /* Returns the offsets of the matches that start in [from, to), in order */
+        int last = pattern.length() - 1;
+        String chunk = text.getText(from, Math.min(text.length(), to + last));
+        int[] found = new int[16];
+        int count = 0;
+        for (int i = 0; i + last < chunk.length(); i += skip[chunk.charAt(i + last)]) {
+            if (chunk.charAt(i + last) == pattern.charAt(last) && chunk.regionMatches(i, pattern, 0, last)) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, 2*count);
+                }
+                found[count] = from + i;
+                count += 1;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+}
@@ -0,0 +1,29 @@
+package editor;
+
+/** FixedWidthMetrics treats every font as monospaced, with every character as wide as a
+* fixed fraction of the font size. It measures nothing, so it works without JavaFX. */
+public class FixedWidthMetrics implements GlyphMetrics {
+    private static final double WIDTH_PER_POINT = 0.6;
+    private static final double HEIGHT_PER_POINT = 1.2;
+    private int fontSize;
+
+    @Override
+    public void setFont(String fontName, int fontSize) {
+        this.fontSize = fontSize;
+    }
+
+    @Override
+    public double width(int codePoint) {
+        return WIDTH_PER_POINT*fontSize;
+    }
+
+    @Override
+    public double lineHeight() {
+        return HEIGHT_PER_POINT*fontSize;
+    }
+
+    @Override
+    public String toString() {
+        return "Fixed width metrics at size " + fontSize;
+    }
+}
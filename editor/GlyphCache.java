@@ -0,0 +1,126 @@
+package editor;
+
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** GlyphCache remembers the advance width of every character that has been measured,
+* keyed by font name and code point. Glyphs are measured once at a large base size and
+* scaled to the current size, so changing the font size only changes a scale factor and
+* no glyph is measured again. Afterwards a width is an array lookup and a multiply.
+* Every document gets its own view with newMetrics, which has its own font and size but
+* shares the widths with the other views, so a second document does not measure again. */
+public class GlyphCache {
+    private static final int PAGE_SIZE = 256;
+    private static final double UNMEASURED = -1;
+    private static final int BASE_SIZE = 96;    //font size that glyphs are measured at
+
+    private class FontTable {   //widths for one font name at BASE_SIZE
+        final Font font;
+        final double lineHeight;
+        final double[][] pages = new double[Character.MAX_VALUE/PAGE_SIZE + 1][];  //code points in the BMP, a page is made when first needed
+        final HashMap<Integer, Double> supplementary = new HashMap<Integer, Double>();
+
+        FontTable(String fontName) {
+            font = Font.font(fontName, BASE_SIZE);
+            measurer.setFont(font);
+            measurer.setText("a");
+            lineHeight = measurer.getLayoutBounds().getHeight();
+        }
+    }
+
+    private class FontView implements GlyphMetrics {    //font and size of one document
+        private FontTable current;
+        private double scale;       //current font size divided by BASE_SIZE
+
+        @Override
+        public void setFont(String fontName, int fontSize) {
+            /* Switches to the widths of another font. Another size of the same font only changes the scale */
+            current = table(fontName);
+            scale = (double) fontSize/BASE_SIZE;
+        }
+
+        @Override
+        public double lineHeight() {
+            return current.lineHeight*scale;
+        }
+
+        @Override
+        public double width(int codePoint) {
+            return GlyphCache.this.width(current, codePoint)*scale;
+        }
+    }
+
+    private final Text measurer = new Text();
+    private final HashMap<String, FontTable> tables = new HashMap<String, FontTable>();
+    private long hits = 0;
+    private long misses = 0;
+
+    public GlyphMetrics newMetrics() {
+        /* Call on the JavaFX thread, like every use of the metrics */
+        return new FontView();
+    }
+
+    private FontTable table(String fontName) {
+        FontTable table = tables.get(fontName);
+        if (table == null) {
+            table = new FontTable(fontName);
+            tables.put(fontName, table);
+        }
+        return table;
+    }
+
+    private double width(FontTable table, int codePoint) {
+        /* Width at BASE_SIZE */
+        if (codePoint <= Character.MAX_VALUE) {
+            double[] page = table.pages[codePoint/PAGE_SIZE];
+            if (page == null) {
+                page = new double[PAGE_SIZE];
+                Arrays.fill(page, UNMEASURED);
+                table.pages[codePoint/PAGE_SIZE] = page;
+            }
+            double width = page[codePoint%PAGE_SIZE];
+            if (width == UNMEASURED) {
+                width = measure(table, codePoint);
+                page[codePoint%PAGE_SIZE] = width;
+            } else {
+                hits += 1;
+            }
+            return width;
+        }
+        Double width = table.supplementary.get(codePoint);
+        if (width == null) {
+            width = measure(table, codePoint);
+            table.supplementary.put(codePoint, width);
+        } else {
+            hits += 1;
+        }
+        return width;
+    }
+
+    private double measure(FontTable table, int codePoint) {
+        misses += 1;
+        measurer.setFont(table.font);
+        measurer.setText(new String(Character.toChars(codePoint)));
+        return Editor.getTextWidth(measurer);
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits/lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Glyph cache: %d hits, %d misses (%.1f%% hit rate)", hits, misses, 100*hitRate());
+    }
+}
@@ -0,0 +1,10 @@
+package editor;
+
+/** GlyphMetrics gives TextStorage the sizes it needs to wrap text and place the cursor.
+* The views made by GlyphCache measure them with JavaFX, FixedWidthMetrics makes them up
+* so that the document can be edited and wrapped without starting a JavaFX toolkit. */
+public interface GlyphMetrics {
+    void setFont(String fontName, int fontSize);
+    double width(int codePoint);
+    double lineHeight();
+}
@@ -0,0 +1,285 @@
+package editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** HugeFile reads a file of any size without holding it, for files too large for a PieceTable.
+* The file is memory-mapped in segments of a gigabyte and every offset is a long. Where the
+* lines start is found on a background thread, which keeps the start of every stride-th line,
+* and of every line starting more than gap bytes after the start kept before it, so that a
+* long line is never read through to find the one after it. When that index is full the
+* stride and the gap double and the starts they no longer need are dropped, so it never takes
+* more than MAX_ENTRIES starts however many lines there are. A line is found from the closest
+* start kept before it, which is fewer than stride lines and 2*gap bytes before it. That can be
+* a lot of bytes in a file with billions of lines, so the viewer reads lines off the FX thread.
+*
+* Lines end at '\n'. They are decoded as UTF-8, which also shows ASCII, and only their first
+* MAX_LINE_BYTES bytes are decoded. */
+public class HugeFile {
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int MAX_ENTRIES = 1 << 18;    //line starts kept at most: 4 MB with their line numbers, 8 MB while a copy is thinned
+    private static final int SCAN_SIZE = 1 << 20;      //bytes copied out of the mapping at a time by the indexer
+    private static final long PROGRESS_STEP = 64L << 20;   //bytes indexed between progress reports
+    public static final int MAX_LINE_BYTES = 4096;
+
+    /** Receives the progress of the index. Called with the callback executor given to index */
+    public interface Listener {
+        void indexed(long lines, double fraction);
+        void finished(long lines);
+    }
+
+    /** What the indexer has found so far. Never changed once published, a new one replaces it */
+    private static class Index {
+        final long[] starts;        //starts[i] is where line numbers[i] starts, only the first count are set
+        final long[] numbers;       //in increasing order
+        final int count;
+        final int stride;           //1 if every line start is kept, then numbers[i] is i
+        final long lines;           //lines found so far
+        final long scanned;         //bytes of the file looked at so far
+
+        Index(long[] starts, long[] numbers, int count, int stride, long lines, long scanned) {
+            this.starts = starts;
+            this.numbers = numbers;
+            this.count = count;
+            this.stride = stride;
+            this.lines = lines;
+            this.scanned = scanned;
+        }
+    }
+
+    /* One thread indexes the huge files, one after the other */
+    private static final ExecutorService indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "huge file index");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final long length;
+    private final MappedByteBuffer[] segments;
+    private volatile Index index = new Index(new long[0], new long[0], 0, 1, 0, 0);
+    private volatile boolean cancelled = false;
+
+    /** Constructor. Maps the file, nothing is read yet */
+    public HugeFile(File file) throws IOException {
+        this.file = file;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            length = channel.size();
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1)/SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i*SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    private byte byteAt(long offset) {
+        return segments[(int) (offset/SEGMENT_SIZE)].get((int) (offset%SEGMENT_SIZE));
+    }
+
+    public long lineCount() {
+        /* Lines found so far, all of them once the index is finished */
+        return index.lines;
+    }
+
+    public boolean isIndexed() {
+        return index.scanned == length;
+    }
+
+    public void index(final Executor callbacks, final Listener listener) {
+        /* Finds the lines on the indexer thread, reporting every PROGRESS_STEP bytes */
+        indexer.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan(callbacks, listener);
+            }
+        });
+    }
+
+    public void cancel() {
+        /* Stops the index where it is, for a file that is not shown anymore */
+        cancelled = true;
+    }
+
+    private void scan(Executor callbacks, final Listener listener) {
+        /* Starts are only added after the count that was published, and the index is made smaller
+         * in a new array, so the published index never changes under its readers */
+        long[] starts = new long[1024];
+        long[] numbers = new long[1024];
+        int count = 0;
+        int stride = 1;
+        long gap = MAX_LINE_BYTES;
+        long lines = 0;
+        boolean atLineStart = true;     //the next byte starts a line
+        byte[] chunk = new byte[SCAN_SIZE];
+        long reported = 0;
+        for (int s = 0; s < segments.length && !cancelled; s++) {
+            ByteBuffer segment = segments[s].duplicate();
+            while (segment.hasRemaining() && !cancelled) {
+                long chunkStart = s*SEGMENT_SIZE + segment.position();
+                int size = Math.min(chunk.length, segment.remaining());
+                segment.get(chunk, 0, size);
+                for (int i = 0; i < size; i++) {
+                    if (atLineStart) {
+                        long start = chunkStart + i;
+                        if (lines%stride == 0 || start - starts[count - 1] >= gap) {
+                            if (count == MAX_ENTRIES) {     //keeps at most half of the starts, in new arrays
+                                starts = starts.clone();
+                                numbers = numbers.clone();
+                                while (count > MAX_ENTRIES/2) {
+                                    stride *= 2;
+                                    gap *= 2;
+                                    count = thin(starts, numbers, count, stride, gap);
+                                }
+                            } else if (count == starts.length) {
+                                starts = Arrays.copyOf(starts, Math.min(MAX_ENTRIES, 2*count));
+                                numbers = Arrays.copyOf(numbers, starts.length);
+                            }
+                            if (lines%stride == 0 || start - starts[count - 1] >= gap) {
+                                starts[count] = start;
+                                numbers[count] = lines;
+                                count += 1;
+                            }
+                        }
+                        lines += 1;
+                    }
+                    atLineStart = chunk[i] == '\n';
+                }
+                long scanned = chunkStart + size;
+                if (scanned - reported >= PROGRESS_STEP || scanned == length) {
+                    reported = scanned;
+                    publish(starts, numbers, count, stride, lines, scanned, callbacks, listener);
+                }
+            }
+        }
+        if (length == 0) {
+            publish(starts, numbers, 0, 1, 0, 0, callbacks, listener);
+        }
+    }
+
+    private static int thin(long[] starts, long[] numbers, int count, int stride, long gap) {
+        /* Keeps the first start, the starts of every stride-th line and the starts more than gap
+         * bytes after the one kept before them. Returns how many are kept */
+        int kept = 1;
+        for (int i = 1; i < count; i++) {
+            if (numbers[i]%stride == 0 || starts[i] - starts[kept - 1] >= gap) {
+                starts[kept] = starts[i];
+                numbers[kept] = numbers[i];
+                kept += 1;
+            }
+        }
+        return kept;
+    }
+
+    private void publish(long[] starts, long[] numbers, int count, int stride, final long lines, long scanned,
+            Executor callbacks, final Listener listener) {
+        index = new Index(starts, numbers, count, stride, lines, scanned);
+        final double fraction = (double) scanned/length;
+        final boolean finished = scanned == length;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (finished) {
+                    listener.finished(lines);
+                } else {
+                    listener.indexed(lines, fraction);
+                }
+            }
+        });
+    }
+
+    public long lineStart(long line) {
+        /* Start of the line, going from the closest start kept before it. Lines that are not
+         * indexed yet start at the end of the file */
+        Index current = index;
+        if (line >= current.lines) {
+            return current.lines == 0 ? 0 : length;
+        }
+        int entry;
+        if (current.stride == 1) {
+            entry = (int) line;
+        } else {
+            entry = Arrays.binarySearch(current.numbers, 0, current.count, line);
+            if (entry < 0) {
+                entry = -entry - 2;
+            }
+        }
+        long offset = current.starts[entry];
+        for (long skip = line - current.numbers[entry]; skip > 0; offset++) {
+            if (byteAt(offset) == '\n') {
+                skip -= 1;
+            }
+        }
+        return offset;
+    }
+
+    public long nextLineStart(long line, long start) {
+        /* Start of line, given the start of the line before it. Only the first MAX_LINE_BYTES
+         * bytes of the line before are looked through, the start of a longer line is found
+         * from the index, and so is every start while the index keeps them all */
+        if (index.stride == 1) {
+            return lineStart(line);
+        }
+        long end = Math.min(length, start + MAX_LINE_BYTES + 1);
+        for (long offset = start; offset < end; offset++) {
+            if (byteAt(offset) == '\n') {
+                return offset + 1;
+            }
+        }
+        return lineStart(line);
+    }
+
+    public String[] lines(long first, int count) {
+        /* Texts of count lines from first, fewer if the index has not found them all yet. Only the
+         * first one is looked up in the index, the others follow from it */
+        String[] texts = new String[(int) Math.max(0, Math.min(count, lineCount() - first))];
+        long start = lineStart(first);
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = lineText(start);
+            start = nextLineStart(first + i + 1, start);
+        }
+        return texts;
+    }
+
+    public String lineText(long start) {
+        /* The first MAX_LINE_BYTES bytes of the line starting at start, without the newline ending it */
+        byte[] bytes = new byte[(int) Math.min(MAX_LINE_BYTES, length - start)];
+        int size = 0;
+        while (size < bytes.length) {
+            byte b = byteAt(start + size);
+            if (b == '\n') {
+                break;
+            }
+            bytes[size] = b;
+            size += 1;
+        }
+        if (size > 0 && bytes[size - 1] == '\r') {
+            size -= 1;
+        }
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,213 @@
+package editor;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.event.EventHandler;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** HugeFileViewer shows a HugeFile, read only, in a window of its own. The scroll bar counts
+* lines, and only the lines inside the window are read and get a Text, so it costs the same
+* for any size of file. Lines are not wrapped, and only the first HugeFile.MAX_LINE_BYTES of
+* a line are shown. Until the index is finished the file can be scrolled through as far as
+* it has got. Arrow keys and PAGE UP and PAGE DOWN scroll, Ctrl/Cmd+HOME and Ctrl/Cmd+END go
+* to the first and last line.
+*
+* Finding a line can mean reading megabytes of a file with billions of lines, so the lines are
+* read on a thread of their own and shown when they arrive. While scrolling, only the latest
+* window asked for is read, the ones it replaced are skipped. */
+public class HugeFileViewer {
+    private static final int WINDOW_WIDTH = 500;
+    private static final int WINDOW_HEIGHT = 500;
+    private static final String FONT_NAME = "Verdana";
+    private static final int FONT_SIZE = 12;
+    private static final double MARGIN = 5.0;
+
+    /* One thread reads the lines of every viewer */
+    private static final ExecutorService reader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "huge file lines");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final HugeFile file;
+    private final Executor callbacks;
+    private final Stage stage = new Stage();
+    private final Group root = new Group();
+    private final ScrollBar scrollBar = new ScrollBar();
+    private final ArrayList<Text> lineTexts = new ArrayList<Text>();    //lineTexts.get(i) shows the i-th visible line
+    private final Font font = Font.font(FONT_NAME, FONT_SIZE);
+    private final double lineHeight;
+    private int windowWidth = WINDOW_WIDTH;
+    private int windowHeight = WINDOW_HEIGHT;
+    private String status = "indexing";
+    private volatile int requested = 0;     //counts the windows of lines asked for, only changed on the FX thread
+
+    /** Constructor */
+    public HugeFileViewer(HugeFile file, GlyphMetrics glyphs, Executor callbacks) {
+        this.file = file;
+        this.callbacks = callbacks;
+        glyphs.setFont(FONT_NAME, FONT_SIZE);
+        lineHeight = glyphs.lineHeight();
+    }
+
+    public void show() {
+        /* Opens the window and starts the index, which makes the file longer as it goes */
+        Scene scene = new Scene(root, windowWidth, windowHeight, Color.WHITE);
+        scrollBar.setOrientation(Orientation.VERTICAL);
+        scrollBar.setPrefHeight(windowHeight);
+        scrollBar.setMin(0);
+        scrollBar.setMax(0);
+        scrollBar.setLayoutX(windowWidth - scrollBar.getLayoutBounds().getWidth());
+        root.getChildren().add(scrollBar);
+        scrollBar.valueProperty().addListener(new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> observableValue, Number oldValue, Number newValue) {
+                render();
+            }
+        });
+        scene.setOnKeyPressed(new EventHandler<KeyEvent>() {
+            @Override
+            public void handle(KeyEvent keyEvent) {
+                KeyCode code = keyEvent.getCode();
+                if (code == KeyCode.UP || code == KeyCode.DOWN) {
+                    scrollBy(code == KeyCode.UP ? -1 : 1);
+                } else if (code == KeyCode.PAGE_UP || code == KeyCode.PAGE_DOWN) {
+                    scrollBy((code == KeyCode.PAGE_UP ? -1 : 1)*Math.max(1, visibleLines() - 1));
+                } else if (code == KeyCode.HOME && keyEvent.isShortcutDown()) {
+                    scrollBar.setValue(0);
+                } else if (code == KeyCode.END && keyEvent.isShortcutDown()) {
+                    scrollBar.setValue(scrollBar.getMax());
+                }
+            }
+        });
+        scene.setOnScroll(new EventHandler<ScrollEvent>() {
+            @Override
+            public void handle(ScrollEvent scrollEvent) {
+                scrollBy(-scrollEvent.getDeltaY()/lineHeight);
+            }
+        });
+        scene.widthProperty().addListener(new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> observableValue, Number oldWidth, Number newWidth) {
+                windowWidth = newWidth.intValue();
+                scrollBar.setLayoutX(windowWidth - scrollBar.getLayoutBounds().getWidth());
+            }
+        });
+        scene.heightProperty().addListener(new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> observableValue, Number oldHeight, Number newHeight) {
+                windowHeight = newHeight.intValue();
+                scrollBar.setPrefHeight(windowHeight);
+                updateLength();
+                render();
+            }
+        });
+        stage.setOnHidden(new EventHandler<WindowEvent>() {
+            @Override
+            public void handle(WindowEvent windowEvent) {
+                file.cancel();
+            }
+        });
+        stage.setScene(scene);
+        stage.setTitle(title());
+        stage.show();
+        file.index(callbacks, new HugeFile.Listener() {
+            @Override
+            public void indexed(long lines, double fraction) {
+                status = String.format("indexing %.0f%%", 100*fraction);
+                updateLength();
+                render();
+            }
+
+            @Override
+            public void finished(long lines) {
+                status = "read only";
+                updateLength();
+                render();
+                System.out.println("Indexed " + lines + " lines of " + file.file());
+            }
+        });
+    }
+
+    private int visibleLines() {
+        return (int) Math.ceil(windowHeight/lineHeight);
+    }
+
+    private void scrollBy(double lines) {
+        scrollBar.setValue(Math.max(0, Math.min(scrollBar.getMax(), scrollBar.getValue() + lines)));
+    }
+
+    private void updateLength() {
+        /* The scroll bar goes as far as the last line found so far can be at the bottom of the window */
+        scrollBar.setMax(Math.max(0, file.lineCount() - visibleLines() + 1));
+        stage.setTitle(title());
+    }
+
+    private String title() {
+        return "Text Editor - " + file.file().getName() + " - " + file.lineCount() + " lines, " + status;
+    }
+
+    private void render() {
+        /* Asks the reader for the lines in the window. The lines shown stay until they arrive */
+        final long first = (long) scrollBar.getValue();
+        final int needed = (int) Math.max(0, Math.min(visibleLines(), file.lineCount() - first));
+        requested += 1;
+        final int request = requested;
+        reader.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request != requested) {
+                    return;
+                }
+                final String[] texts = file.lines(first, needed);
+                callbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request == requested) {
+                            show(texts);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void show(String[] texts) {
+        /* texts[i] goes in the i-th line of the window */
+        while (lineTexts.size() > texts.length) {
+            root.getChildren().remove(lineTexts.remove(lineTexts.size() - 1));
+        }
+        while (lineTexts.size() < texts.length) {
+            Text lineText = new Text();
+            lineText.setTextOrigin(VPos.TOP);
+            lineText.setFont(font);
+            lineText.setX(MARGIN);
+            lineText.setY(lineTexts.size()*lineHeight);
+            lineTexts.add(lineText);
+            root.getChildren().add(0, lineText);
+        }
+        for (int i = 0; i < texts.length; i++) {
+            lineTexts.get(i).setText(texts[i]);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package editor;
+
+import java.util.Arrays;
+
+/** LatencyHistogram counts durations in buckets that grow with the duration, the way
+* HdrHistogram does: every power of two is split into SUB_BUCKETS equal buckets, so a
+* percentile is never more than about 3% above the real value. Recording is a few shifts
+* and an array increment, and nothing is allocated after construction. */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private final long[] counts = new long[(64 - SUB_BITS)*SUB_BUCKETS];
+    private final String name;
+    private long count = 0;
+    private long max = 0;
+    private long total = 0;
+
+    /** Constructor */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts[bucket(nanos)] += 1;
+        count += 1;
+        total += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    private static int bucket(long value) {
+        /* The top SUB_BITS + 1 bits of value pick its bucket, small values have a bucket each */
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift*SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int bucket) {
+        /* The largest value that falls in bucket */
+        if (bucket < 2*SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket/SUB_BUCKETS - 1;
+        long sub = bucket - shift*SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) total/count;
+    }
+
+    public long percentile(double percent) {
+        /* Returns the largest value of the bucket that holds the percentile, 0 if nothing was recorded */
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent/100*count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+        total = 0;
+    }
+
+    @Override
+    public String toString() {
+        /* Milliseconds */
+        return String.format("%s n=%d p50=%.2f p99=%.2f max=%.2f", name, count,
+                percentile(50)/1e6, percentile(99)/1e6, max/1e6);
+    }
+}
@@ -0,0 +1,110 @@
+package editor;
+
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/** LayoutWorker wraps the pending runs of a document in the background. The runs are
+* scanned and wrapped on a ForkJoinPool, while the glyphs are measured and the lines put
+* in place on the callback thread, which owns the document. Starting again or cancelling
+* drops the job that is running, and a job whose text or width changed meanwhile is never
+* applied, so a burst of resizes only pays for the last width. */
+public class LayoutWorker {
+    /** Receives a finished layout. Called with the callback executor given to the constructor */
+    public interface Listener {
+        void finished(Result result);
+    }
+
+    /** Lines of a finished job, waiting to be put into the document */
+    public static class Result {
+        private final TextStorage buffer;
+        private final TextStorage.LayoutJob job;
+        private final LineIndex.Block[] blocks;
+
+        Result(TextStorage buffer, TextStorage.LayoutJob job, LineIndex.Block[] blocks) {
+            this.buffer = buffer;
+            this.job = job;
+            this.blocks = blocks;
+        }
+
+        public boolean apply() {
+            /* Returns false if the document changed since the job started, so nothing was applied */
+            return blocks != null && buffer.applyLayout(job, blocks);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Executor callbacks;
+    private TextStorage.LayoutJob current;  //job that is running, null if there is none
+    private int generation = 0;             //counts the jobs started, only used on the callback thread
+
+    /** Constructor. The pool may be shared by the workers of several documents */
+    public LayoutWorker(ForkJoinPool pool, Executor callbacks) {
+        this.pool = pool;
+        this.callbacks = callbacks;
+    }
+
+    public void start(final TextStorage buffer, final Listener listener) {
+        /* Call on the callback thread. Does nothing if the document has no pending runs */
+        cancel();
+        final TextStorage.LayoutJob job = buffer.pendingLayout();
+        if (job == null) {
+            return;
+        }
+        current = job;
+        final int started = generation;
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                final BitSet used = ParallelLayout.scan(pool, job);
+                callbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (started != generation) {
+                            return;
+                        }
+                        if (!buffer.isCurrent(job)) {
+                            /* Edited meanwhile, so the runs have moved */
+                            current = null;
+                            listener.finished(new Result(buffer, job, null));
+                            return;
+                        }
+                        wrap(buffer, job, buffer.measure(used), started, listener);
+                    }
+                });
+            }
+        });
+    }
+
+    private void wrap(final TextStorage buffer, final TextStorage.LayoutJob job, final GlyphMetrics widths, final int started, final Listener listener) {
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                final LineIndex.Block[] blocks = ParallelLayout.wrap(pool, job, widths);
+                callbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (started != generation) {
+                            return;
+                        }
+                        current = null;
+                        listener.finished(new Result(buffer, job, blocks));
+                    }
+                });
+            }
+        });
+    }
+
+    public void cancel() {
+        /* Call on the callback thread. The job that is running finishes early and is never reported */
+        generation += 1;
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return current != null;
+    }
+}
@@ -0,0 +1,298 @@
+package editor;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** LineIndex stores the length of every displayed line in a treap ordered by line number.
+* Every node knows the number of lines and characters in its subtree, so converting
+* between line numbers and offsets is O(log n). Replacing lines in the middle does not
+* touch the lines after them, because their starts are only ever computed as sums.
+* A node can also be a pending run: a stretch of whole paragraphs that has not been
+* wrapped yet and counts as an estimated number of lines until it is. */
+public class LineIndex {
+    private static class Line {
+        final int length;
+        final int lines;        //1, or the estimated number of lines of a pending run
+        final boolean pending;
+        final int priority;
+        Line left;
+        Line right;
+        int count;      //number of lines in this subtree
+        int sum;        //number of characters in this subtree
+        int runs;       //number of pending runs in this subtree
+
+        Line(int length, int lines, boolean pending) {
+            this.length = length;
+            this.lines = lines;
+            this.pending = pending;
+            this.priority = ThreadLocalRandom.current().nextInt();
+            count = lines;
+            sum = length;
+            runs = pending ? 1 : 0;
+        }
+    }
+
+    private Line root;
+
+    /** Constructor */
+    public LineIndex() {
+        root = null;
+    }
+
+    private static int count(Line n) {
+        return n == null ? 0 : n.count;
+    }
+
+    private static int sum(Line n) {
+        return n == null ? 0 : n.sum;
+    }
+
+    private static int runs(Line n) {
+        return n == null ? 0 : n.runs;
+    }
+
+    private static Line update(Line n) {
+        n.count = count(n.left) + n.lines + count(n.right);
+        n.sum = sum(n.left) + n.length + sum(n.right);
+        n.runs = runs(n.left) + (n.pending ? 1 : 0) + runs(n.right);
+        return n;
+    }
+
+    public int size() {
+        return count(root);
+    }
+
+    public int totalLength() {
+        return sum(root);
+    }
+
+    private int foundStart;     //character offset of the node found by find
+    private int foundLine;      //first line of the node found by find
+
+    private Line find(int line) {
+        /* Returns the node holding the line. The start of a node is the total length of the nodes before it */
+        int start = 0;
+        int first = 0;
+        Line n = root;
+        while (n != null) {
+            int leftCount = count(n.left);
+            if (line < leftCount) {
+                n = n.left;
+            } else if (line < leftCount + n.lines) {
+                foundStart = start + sum(n.left);
+                foundLine = first + leftCount;
+                return n;
+            } else {
+                start += sum(n.left) + n.length;
+                first += leftCount + n.lines;
+                line -= leftCount + n.lines;
+                n = n.right;
+            }
+        }
+        foundStart = start;
+        foundLine = first;
+        return null;
+    }
+
+    public int start(int line) {
+        /* Inside a pending run this is the start of the run */
+        find(line);
+        return foundStart;
+    }
+
+    public int length(int line) {
+        /* Inside a pending run this is the length of the whole run */
+        Line n = find(line);
+        return n == null ? 0 : n.length;
+    }
+
+    public boolean isPending(int line) {
+        Line n = find(line);
+        return n != null && n.pending;
+    }
+
+    public int runFirstLine(int line) {
+        /* Returns the first line of the pending run holding the line, or the line itself */
+        find(line);
+        return foundLine;
+    }
+
+    public int runLines(int line) {
+        Line n = find(line);
+        return n == null ? 0 : n.lines;
+    }
+
+    public int[] pendingRunLines() {
+        /* Returns the first line of every pending run, in order */
+        int[] result = new int[runs(root)];
+        collectRuns(root, 0, result, 0);
+        return result;
+    }
+
+    private static int collectRuns(Line n, int firstLine, int[] result, int found) {
+        /* Only subtrees holding pending runs are visited */
+        if (n == null || n.runs == 0) {
+            return found;
+        }
+        found = collectRuns(n.left, firstLine, result, found);
+        int line = firstLine + count(n.left);
+        if (n.pending) {
+            result[found] = line;
+            found += 1;
+        }
+        return collectRuns(n.right, line + n.lines, result, found);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    public void add(int length) {
+        /* Adds a line of the given length after the last line */
+        root = merge(root, new Line(length, 1, false));
+    }
+
+    public void addPending(int length, int estimatedLines) {
+        /* Adds a run of whole paragraphs after the last line that will be wrapped later */
+        root = merge(root, new Line(length, Math.max(1, estimatedLines), true));
+    }
+
+    public int lineOf(int offset) {
+        /* Returns the last line starting at or before offset, -1 if there is none.
+         * Inside a pending run this is the first line of the run */
+        if (root == null || offset < 0) {
+            return -1;
+        }
+        if (offset >= root.sum) {
+            return root.count - 1;
+        }
+        int line = 0;
+        Line n = root;
+        while (true) {
+            int leftSum = sum(n.left);
+            if (offset < leftSum) {
+                n = n.left;
+            } else if (offset < leftSum + n.length) {
+                return line + count(n.left);
+            } else {
+                offset -= leftSum + n.length;
+                line += count(n.left) + n.lines;
+                n = n.right;
+            }
+        }
+    }
+
+    public boolean isLineStart(int offset) {
+        return indexOf(offset) != -1;
+    }
+
+    public int indexOf(int start) {
+        /* Returns the line starting exactly at start, -1 if there is none */
+        if (root == null || start < 0 || start >= root.sum) {
+            return -1;
+        }
+        int line = lineOf(start);
+        return start(line) == start ? line : -1;
+    }
+
+    public void replace(int from, int to, int[] newStarts, int count, int delta) {
+        /* Replaces lines [from, to) with count lines beginning at newStarts. The text after
+         * them moved by delta characters, which only changes where the last new line ends.
+         * from and to must not fall inside a pending run */
+        int end = sum(root) + delta;
+        if (to < size()) {
+            end = start(to) + delta;
+        }
+        Line[] first = split(root, from);
+        Line[] second = split(first[1], to - from);
+        root = merge(merge(first[0], build(newStarts, count, end)), second[1]);
+    }
+
+    /** Lines that were made ahead of time, possibly on another thread, to be put in with replace */
+    public static class Block {
+        private final Line root;
+
+        private Block(Line root) {
+            this.root = root;
+        }
+    }
+
+    public static Block block(int[] starts, int count, int end) {
+        /* Makes count lines beginning at starts, the last one ending at end */
+        return new Block(build(starts, count, end));
+    }
+
+    public void replace(int from, int to, Block block) {
+        /* Replaces lines [from, to) with the lines of the block. from and to must not fall inside a pending run */
+        Line[] first = split(root, from);
+        Line[] second = split(first[1], to - from);
+        root = merge(merge(first[0], block.root), second[1]);
+    }
+
+    private static Line build(int[] starts, int count, int end) {
+        /* Makes a treap of lines in O(count). The stack holds the right spine of the tree built so far */
+        Line[] spine = new Line[64];
+        int height = 0;
+        for (int i = 0; i < count; i++) {
+            int next = i + 1 < count ? starts[i + 1] : end;
+            Line line = new Line(next - starts[i], 1, false);
+            Line below = null;
+            while (height > 0 && spine[height - 1].priority <= line.priority) {
+                below = spine[height - 1];
+                height -= 1;
+            }
+            line.left = below;
+            if (height > 0) {
+                spine[height - 1].right = line;
+            }
+            if (height == spine.length) {
+                spine = Arrays.copyOf(spine, 2*height);
+            }
+            spine[height] = line;
+            height += 1;
+        }
+        return height == 0 ? null : updateAll(spine[0]);
+    }
+
+    private static Line updateAll(Line n) {
+        if (n != null) {
+            updateAll(n.left);
+            updateAll(n.right);
+            update(n);
+        }
+        return n;
+    }
+
+    private static Line[] split(Line n, int k) {
+        /* Returns the trees holding the first k lines and the rest */
+        if (n == null) {
+            return new Line[] {null, null};
+        }
+        if (k <= count(n.left)) {
+            Line[] s = split(n.left, k);
+            n.left = s[1];
+            return new Line[] {s[0], update(n)};
+        } else {
+            Line[] s = split(n.right, k - count(n.left) - n.lines);
+            n.right = s[0];
+            return new Line[] {update(n), s[1]};
+        }
+    }
+
+    private static Line merge(Line a, Line b) {
+        /* Joins two trees where every line of a comes before every line of b */
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        } else {
+            b.left = merge(a, b.left);
+            return update(b);
+        }
+    }
+}
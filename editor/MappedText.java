@@ -0,0 +1,41 @@
+package editor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** MappedText shows the bytes of a memory-mapped file as characters, one byte per
+* character. Nothing is read or decoded until a character is asked for, so opening a
+* file only costs the mapping. */
+public class MappedText implements CharSequence {
+    private final ByteBuffer bytes;
+
+    /** Constructor */
+    public MappedText(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        ByteBuffer slice = bytes.duplicate();
+        slice.position(start);
+        slice.limit(end);
+        return new MappedText(slice.slice());
+    }
+
+    @Override
+    public String toString() {
+        byte[] contents = new byte[length()];
+        bytes.duplicate().get(contents);
+        return new String(contents, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,70 @@
+package editor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Metrics collects how long the editor takes for the things a user waits on, and what an
+* edit costs in lines wrapped and bytes allocated. It is only used on the editing thread,
+* so recording is plain field updates. */
+public class Metrics {
+    public final LatencyHistogram keystrokeToPaint = new LatencyHistogram("keystroke to paint");
+    public final LatencyHistogram reflow = new LatencyHistogram("reflow");
+    public final LatencyHistogram hitTest = new LatencyHistogram("hit test");
+    public final LatencyHistogram fontChange = new LatencyHistogram("font change");
+    public final LatencyHistogram undo = new LatencyHistogram("undo/redo");
+    public final LatencyHistogram pulse = new LatencyHistogram("pulse layout");
+    private final LatencyHistogram[] histograms = {keystrokeToPaint, reflow, hitTest, fontChange, undo, pulse};
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private long edits = 0;
+    private long linesWrapped = 0;
+    private long bytesAllocated = 0;
+    private double glyphHitRate = 0;    //share of glyph widths that were measured already, from the GlyphCache
+
+    public static long allocatedBytes() {
+        /* Bytes allocated so far by the calling thread, 0 if the JVM cannot tell */
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    public void recordEdit(long lines, long bytes) {
+        edits += 1;
+        linesWrapped += lines;
+        bytesAllocated += bytes;
+    }
+
+    public void recordGlyphHitRate(double hitRate) {
+        glyphHitRate = hitRate;
+    }
+
+    public long edits() {
+        return edits;
+    }
+
+    public String report() {
+        /* One line per histogram, then the cost of an edit */
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram histogram : histograms) {
+            sb.append(histogram).append('\n');
+        }
+        sb.append(editCost());
+        return sb.toString();
+    }
+
+    public String logLine() {
+        StringBuilder sb = new StringBuilder("metrics (ms):");
+        for (LatencyHistogram histogram : histograms) {
+            sb.append(" [").append(histogram).append(']');
+        }
+        return sb.append(' ').append(editCost()).toString();
+    }
+
+    private String editCost() {
+        return String.format("edits=%d lines/edit=%.1f KB/edit=%.1f glyph hits=%.1f%%", edits,
+                edits == 0 ? 0 : (double) linesWrapped/edits, edits == 0 ? 0 : bytesAllocated/1024.0/edits, 100*glyphHitRate);
+    }
+}
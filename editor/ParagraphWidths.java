@@ -0,0 +1,176 @@
+package editor;
+
+import java.util.Arrays;
+
+/** ParagraphWidths keeps the running total of the glyph advances along a long stretch of a
+* paragraph, from start up to the newline that ends it. The width of any part of it is then
+* a subtraction, and where a line wraps or which character is under an x is found by binary
+* search, without reading the characters again. The totals are doubles, 8 bytes a character.
+* TextStorage gives widths that add up exactly, so a width found by subtraction is the very
+* sum that TextStorage.nextLineStart makes going along the line, and lines wrap the same.
+*
+* An edit inside the stretch only throws away the totals after it, they are made again the
+* next time they are needed. Totals are made a chunk at a time with PieceTable.getChars. */
+class ParagraphWidths {
+    private static final int CHUNK_SIZE = 1 << 12;  //characters measured at a time
+
+    private int start;
+    private int end;                    //after the newline that ends the paragraph, or the end of the text
+    private final boolean closed;       //true if the paragraph ends with a newline
+    private final GlyphMetrics glyphs;
+    private double[] totals;            //totals[i] is the width of the first i characters
+    private int[] spaces = new int[16]; //offsets of the spaces in the valid part, from start, in order
+    private int spaceCount = 0;
+    private int valid = 0;              //totals[0..valid] are up to date
+    private final char[] chunk = new char[CHUNK_SIZE];
+
+    ParagraphWidths(PieceTable text, int start, GlyphMetrics glyphs) {
+        int newline = text.indexOf('\n', start);
+        this.start = start;
+        end = newline == -1 ? text.length() : newline + 1;
+        closed = newline != -1;
+        this.glyphs = glyphs;
+        totals = new double[end - start + 1];
+    }
+
+    boolean covers(int from, int to) {
+        return start <= from && from <= to && to <= end;
+    }
+
+    int end() {
+        return end;
+    }
+
+    boolean edited(int offset, int removed, CharSequence inserted) {
+        /* Follows an edit of the text. Returns false if the edit changed where the paragraph begins
+         * or ends, then the totals are of no use anymore */
+        int delta = inserted.length() - removed;
+        if (offset + removed <= start && offset < start) {
+            start += delta;
+            end += delta;
+            return true;
+        } else if (offset > end || (offset == end && closed)) {
+            return true;
+        } else if (offset < start || offset + removed > (closed ? end - 1 : end) || contains(inserted, '\n')) {
+            return false;
+        }
+        end += delta;
+        valid = Math.min(valid, offset - start);
+        spaceCount = firstSpace(valid);
+        if (end - start + 1 > totals.length) {
+            totals = Arrays.copyOf(totals, Math.max(end - start + 1, totals.length + (totals.length >> 1)));
+        }
+        return true;
+    }
+
+    private static boolean contains(CharSequence s, char c) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    double width(PieceTable text, int from, int to) {
+        /* Width of [from, to), which have to be inside the paragraph */
+        return total(text, to) - total(text, from);
+    }
+
+    private double total(PieceTable text, int offset) {
+        /* Width of [start, offset) */
+        int i = offset - start;
+        measure(text, i);
+        return totals[i];
+    }
+
+    private void measure(PieceTable text, int upTo) {
+        /* Makes the totals up to upTo valid, going on to the end of the chunk it is in */
+        if (upTo <= valid) {
+            return;
+        }
+        int to = Math.min(end - start, Math.max(upTo, valid + CHUNK_SIZE));
+        double total = totals[valid];
+        while (valid < to) {
+            int count = Math.min(CHUNK_SIZE, to - valid);
+            text.getChars(start + valid, start + valid + count, chunk, 0);
+            for (int j = 0; j < count; j++) {
+                char c = chunk[j];
+                if (c == ' ') {
+                    if (spaceCount == spaces.length) {
+                        spaces = Arrays.copyOf(spaces, 2*spaceCount);
+                    }
+                    spaces[spaceCount] = valid;
+                    spaceCount += 1;
+                }
+                total += c == '\n' ? 0 : glyphs.width(c);
+                valid += 1;
+                totals[valid] = total;
+            }
+        }
+    }
+
+    private int firstSpace(int from) {
+        /* Index in spaces of the first space at or after from, spaceCount if there is none */
+        int lo = 0;
+        int hi = spaceCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (spaces[mid] < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    int reaching(PieceTable text, int from, double used, double room) {
+        /* Returns the first offset at or after from whose character ends with used plus the width
+         * from from to it at room or more, end if there is none. The steps double until they pass
+         * it, so only about as far as the answer is measured */
+        double base = total(text, from);
+        int lo = from;
+        int hi = from;
+        int step = 16;
+        while (hi < end && used + (total(text, hi + 1) - base) < room) {
+            lo = hi + 1;
+            hi = Math.min(end, hi + step);
+            step *= 2;
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (used + (total(text, mid + 1) - base) >= room) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    int nextLineStart(PieceTable text, int lineStart, double room) {
+        /* Where the line beginning at lineStart wraps when room is left for it, the same as
+         * TextStorage.nextLineStart: the first character always fits, spaces that do not fit
+         * stay on the line, and a word that does not fit goes to the next line unless it is
+         * the only one on the line */
+        int from = lineStart;
+        double used = 0;
+        int i = Math.max(lineStart + 1, reaching(text, from, used, room));
+        while (i < end && text.charAt(i) == ' ') {
+            // The spaces after the edge take no room, the characters after them might still fit
+            used += width(text, from, i);
+            from = i + 1;
+            i = reaching(text, from, used, room);
+        }
+        if (i >= end) {
+            return end;
+        }
+        measure(text, i - start);
+        int space = firstSpace(i - start) - 1;
+        if (space >= 0 && spaces[space] >= lineStart - start) {
+            return start + spaces[space] + 1;
+        }
+        return Character.isLowSurrogate(text.charAt(i)) && i - 1 != lineStart ? i - 1 : i;
+    }
+}
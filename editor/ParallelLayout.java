@@ -0,0 +1,138 @@
+package editor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/** ParallelLayout wraps many runs of whole paragraphs at once on a ForkJoinPool. A run
+* starts after a newline, so its lines wrap the same no matter what comes before it.
+* The characters in the runs are collected first and measured on the calling thread,
+* then the workers wrap with a table of those widths and only read the PieceTable,
+* which never changes. Each worker also builds the LineIndex nodes of its runs, so
+* only splicing them in is left for the calling thread. A cancelled job skips the runs
+* that were not started yet. */
+class ParallelLayout {
+    /** Widths measured beforehand. Every character of the runs is in it */
+    private static class WidthTable implements GlyphMetrics {
+        private final double[] widths = new double[Character.MAX_VALUE + 1];
+        private final double lineHeight;
+
+        WidthTable(BitSet used, GlyphMetrics glyphs) {
+            for (int c = used.nextSetBit(0); c >= 0; c = used.nextSetBit(c + 1)) {
+                widths[c] = glyphs.width(c);
+            }
+            lineHeight = glyphs.lineHeight();
+        }
+
+        @Override
+        public void setFont(String fontName, int fontSize) {
+            throw new UnsupportedOperationException("the widths are fixed when the table is made");
+        }
+
+        @Override
+        public double width(int codePoint) {
+            return widths[codePoint];
+        }
+
+        @Override
+        public double lineHeight() {
+            return lineHeight;
+        }
+    }
+
+    /** Finds the characters used in runs [lo, hi) */
+    private static class Scan extends RecursiveTask<BitSet> {
+        private static final long serialVersionUID = 1L;
+        private final TextStorage.LayoutJob job;
+        private final int lo;
+        private final int hi;
+
+        Scan(TextStorage.LayoutJob job, int lo, int hi) {
+            this.job = job;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected BitSet compute() {
+            if (hi - lo <= 1) {
+                BitSet used = new BitSet();
+                for (int run = lo; run < hi && !job.cancelled; run++) {
+                    for (int i = job.starts[run]; i < job.ends[run]; i++) {
+                        used.set(job.text.charAt(i));
+                    }
+                }
+                return used;
+            }
+            int mid = (lo + hi) >>> 1;
+            Scan left = new Scan(job, lo, mid);
+            left.fork();
+            BitSet used = new Scan(job, mid, hi).compute();
+            used.or(left.join());
+            return used;
+        }
+    }
+
+    /** Wraps runs [lo, hi), putting the lines of every run into result */
+    private static class Wrap extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final TextStorage.LayoutJob job;
+        private final GlyphMetrics widths;
+        private final LineIndex.Block[] result;
+        private final int lo;
+        private final int hi;
+
+        Wrap(TextStorage.LayoutJob job, GlyphMetrics widths, LineIndex.Block[] result, int lo, int hi) {
+            this.job = job;
+            this.widths = widths;
+            this.result = result;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= 1) {
+                for (int run = lo; run < hi && !job.cancelled; run++) {
+                    result[run] = wrapRun(job.starts[run], job.ends[run]);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Wrap(job, widths, result, lo, mid), new Wrap(job, widths, result, mid, hi));
+        }
+
+        private LineIndex.Block wrapRun(int start, int end) {
+            int[] lineStarts = new int[16];
+            int count = 0;
+            while (start < end) {
+                if (count == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, 2*count);
+                }
+                lineStarts[count] = start;
+                count += 1;
+                start = TextStorage.nextLineStart(job.text, start, job.width, job.startX, widths);
+            }
+            return LineIndex.block(lineStarts, count, end);
+        }
+    }
+
+    static BitSet scan(ForkJoinPool pool, TextStorage.LayoutJob job) {
+        /* Returns the characters used in the runs of the job */
+        return pool.invoke(new Scan(job, 0, job.starts.length));
+    }
+
+    static GlyphMetrics measure(BitSet used, GlyphMetrics glyphs) {
+        /* Call on the thread that glyphs belong to */
+        return new WidthTable(used, glyphs);
+    }
+
+    static LineIndex.Block[] wrap(ForkJoinPool pool, TextStorage.LayoutJob job, GlyphMetrics widths) {
+        /* Returns the lines of every run of the job, with widths from measure */
+        LineIndex.Block[] result = new LineIndex.Block[job.starts.length];
+        pool.invoke(new Wrap(job, widths, result, 0, job.starts.length));
+        return result;
+    }
+}
@@ -0,0 +1,255 @@
+package editor;
+
+import java.util.Random;
+
+/** PieceTable is an immutable piece table over the original text and an append-only
+* buffer of added text. The pieces are kept in a treap ordered by document position
+* where every node knows the total length of its subtree, so insert, delete and charAt
+* are O(log n). An edit returns a new PieceTable that shares all untouched pieces, so
+* keeping a reference to a PieceTable is a snapshot that other threads can read. */
+public class PieceTable {
+    private static class Piece {
+        final boolean added;    //true if the piece points into the add buffer, false if into the original
+        final int start;
+        final int length;
+        final int priority;
+        final Piece left;
+        final Piece right;
+        final int size;         //total length of the pieces in this subtree
+
+        Piece(boolean added, int start, int length, int priority, Piece left, Piece right) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+        }
+
+        Piece withChildren(Piece l, Piece r) {
+            return new Piece(added, start, length, priority, l, r);
+        }
+    }
+
+    private static final Random random = new Random();
+    private final CharSequence original;
+    private final AddBuffer addBuffer;      //shared by every version, only ever appended to
+    private final Piece root;
+
+    /** Constructor */
+    public PieceTable(CharSequence original) {
+        this.original = original;
+        this.addBuffer = new AddBuffer();
+        if (original.length() > 0) {
+            root = new Piece(false, 0, original.length(), random.nextInt(), null, null);
+        } else {
+            root = null;
+        }
+    }
+
+    private PieceTable(CharSequence original, AddBuffer addBuffer, Piece root) {
+        this.original = original;
+        this.addBuffer = addBuffer;
+        this.root = root;
+    }
+
+    private static int size(Piece p) {
+        return p == null ? 0 : p.size;
+    }
+
+    public int length() {
+        return size(root);
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        }
+        Piece p = root;
+        while (true) {
+            int leftSize = size(p.left);
+            if (index < leftSize) {
+                p = p.left;
+            } else if (index < leftSize + p.length) {
+                return source(p).charAt(p.start + index - leftSize);
+            } else {
+                index -= leftSize + p.length;
+                p = p.right;
+            }
+        }
+    }
+
+    public int indexOf(char c, int fromIndex) {
+        /* Scans the pieces from fromIndex on, returns -1 if c does not appear */
+        int pos = Math.max(0, fromIndex);
+        while (pos < length()) {
+            Piece p = root;
+            int index = pos;
+            while (true) {
+                int leftSize = size(p.left);
+                if (index < leftSize) {
+                    p = p.left;
+                } else if (index < leftSize + p.length) {
+                    index -= leftSize;
+                    break;
+                } else {
+                    index -= leftSize + p.length;
+                    p = p.right;
+                }
+            }
+            CharSequence source = source(p);
+            for (int i = p.start + index; i < p.start + p.length; i++) {
+                if (source.charAt(i) == c) {
+                    return pos + i - p.start - index;
+                }
+            }
+            pos += p.length - index;
+        }
+        return -1;
+    }
+
+    private CharSequence source(Piece p) {
+        return p.added ? addBuffer : original;
+    }
+
+    public PieceTable insert(int offset, CharSequence s) {
+        /* Splits the tree at offset and puts a new piece in between. Consecutive typing
+         * extends the piece that ends at the end of the add buffer instead. */
+        if (s.length() == 0) {
+            return this;
+        }
+        Piece[] parts = split(root, offset);
+        Piece before = rightmost(parts[0]);
+        Piece left;
+        if (before != null && before.added && before.start + before.length == addBuffer.length()) {
+            left = extendLast(parts[0], s.length());
+        } else {
+            left = merge(parts[0], new Piece(true, addBuffer.length(), s.length(), random.nextInt(), null, null));
+        }
+        addBuffer.append(s);
+        return new PieceTable(original, addBuffer, merge(left, parts[1]));
+    }
+
+    public PieceTable delete(int offset, int length) {
+        if (length <= 0) {
+            return this;
+        }
+        Piece[] first = split(root, offset);
+        Piece[] second = split(first[1], length);
+        return new PieceTable(original, addBuffer, merge(first[0], second[1]));
+    }
+
+    private static Piece[] split(Piece p, int k) {
+        /* Returns the trees holding the first k characters and the rest */
+        if (p == null) {
+            return new Piece[] {null, null};
+        }
+        if (k <= 0) {
+            return new Piece[] {null, p};
+        }
+        if (k >= p.size) {
+            return new Piece[] {p, null};
+        }
+        int leftSize = size(p.left);
+        if (k <= leftSize) {
+            Piece[] s = split(p.left, k);
+            return new Piece[] {s[0], p.withChildren(s[1], p.right)};
+        } else if (k >= leftSize + p.length) {
+            Piece[] s = split(p.right, k - leftSize - p.length);
+            return new Piece[] {p.withChildren(p.left, s[0]), s[1]};
+        } else {    //k falls inside this piece, so cut it in two
+            int cut = k - leftSize;
+            Piece l = new Piece(p.added, p.start, cut, p.priority, p.left, null);
+            Piece r = new Piece(p.added, p.start + cut, p.length - cut, p.priority, null, p.right);
+            return new Piece[] {l, r};
+        }
+    }
+
+    private static Piece merge(Piece a, Piece b) {
+        /* Joins two trees where every piece of a comes before every piece of b */
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.withChildren(a.left, merge(a.right, b));
+        } else {
+            return b.withChildren(merge(a, b.left), b.right);
+        }
+    }
+
+    private static Piece rightmost(Piece p) {
+        if (p == null) {
+            return null;
+        }
+        while (p.right != null) {
+            p = p.right;
+        }
+        return p;
+    }
+
+    private static Piece extendLast(Piece p, int k) {
+        if (p.right == null) {
+            return new Piece(p.added, p.start, p.length + k, p.priority, p.left, null);
+        }
+        return p.withChildren(p.left, extendLast(p.right, k));
+    }
+
+    public String getText(int start, int end) {
+        /* Returns the characters in [start, end) */
+        StringBuilder sb = new StringBuilder(Math.max(0, end - start));
+        appendRange(root, 0, start, end, sb);
+        return sb.toString();
+    }
+
+    private void appendRange(Piece p, int pieceOffset, int start, int end, StringBuilder sb) {
+        if (p == null || start >= end) {
+            return;
+        }
+        int ownStart = pieceOffset + size(p.left);
+        int ownEnd = ownStart + p.length;
+        if (start < ownStart) {
+            appendRange(p.left, pieceOffset, start, end, sb);
+        }
+        int from = Math.max(start, ownStart);
+        int to = Math.min(end, ownEnd);
+        if (from < to) {
+            sb.append(source(p), p.start + from - ownStart, p.start + to - ownStart);
+        }
+        if (end > ownEnd) {
+            appendRange(p.right, ownEnd, start, end, sb);
+        }
+    }
+
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        /* Copies the characters in [start, end) into dst, like String.getChars. Nothing is allocated */
+        copyRange(root, 0, start, end, dst, dstBegin - start);
+    }
+
+    private void copyRange(Piece p, int pieceOffset, int start, int end, char[] dst, int shift) {
+        /* The character at offset i goes to dst[i + shift] */
+        if (p == null || start >= end) {
+            return;
+        }
+        int ownStart = pieceOffset + size(p.left);
+        int ownEnd = ownStart + p.length;
+        if (start < ownStart) {
+            copyRange(p.left, pieceOffset, start, end, dst, shift);
+        }
+        CharSequence source = source(p);
+        for (int i = Math.max(start, ownStart); i < Math.min(end, ownEnd); i++) {
+            dst[i + shift] = source.charAt(p.start + i - ownStart);
+        }
+        if (end > ownEnd) {
+            copyRange(p.right, ownEnd, start, end, dst, shift);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getText(0, length());
+    }
+}
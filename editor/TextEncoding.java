@@ -0,0 +1,215 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/** TextEncoding is the character set of a file and whether it begins with a byte order mark.
+* A byte order mark picks UTF-8, UTF-16BE or UTF-16LE. Without one a file is read as UTF-8,
+* and as Latin-1 if it is not valid UTF-8. Decoding and encoding go a block at a time through
+* one CharBuffer and one ByteBuffer, so nothing is allocated per character, and a character
+* whose bytes are split between two blocks is put back together by the coder. */
+public class TextEncoding {
+    public static final TextEncoding UTF_8 = new TextEncoding(StandardCharsets.UTF_8, false);
+    public static final TextEncoding LATIN_1 = new TextEncoding(StandardCharsets.ISO_8859_1, false);
+    private static final int BLOCK_SIZE = 1 << 16;     //characters decoded or encoded at a time
+    private static final byte[] UTF_8_BOM = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+    private static final byte[] UTF_16BE_BOM = {(byte) 0xfe, (byte) 0xff};
+    private static final byte[] UTF_16LE_BOM = {(byte) 0xff, (byte) 0xfe};
+
+    /** The text of a file and the encoding it was read with */
+    public static class Decoded {
+        public final CharSequence text;
+        public final TextEncoding encoding;
+
+        Decoded(CharSequence text, TextEncoding encoding) {
+            this.text = text;
+            this.encoding = encoding;
+        }
+    }
+
+    private final Charset charset;
+    private final boolean bom;
+
+    private TextEncoding(Charset charset, boolean bom) {
+        this.charset = charset;
+        this.bom = bom;
+    }
+
+    public Charset charset() {
+        return charset;
+    }
+
+    public boolean hasBom() {
+        return bom;
+    }
+
+    public static Decoded decode(ByteBuffer bytes) {
+        /* Text that only has ASCII or Latin-1 is shown straight from bytes, which is not copied */
+        TextEncoding encoding = detect(bytes);
+        ByteBuffer contents = bytes.duplicate();
+        contents.position(encoding.bomBytes().length);
+        contents = contents.slice();
+        if (encoding.charset == StandardCharsets.ISO_8859_1 || (encoding.charset == StandardCharsets.UTF_8 && isAscii(contents))) {
+            return new Decoded(new MappedText(contents), encoding);
+        }
+        try {
+            return new Decoded(encoding.decodeAll(contents), encoding);
+        } catch (CharacterCodingException e) {
+            return new Decoded(new MappedText(contents), LATIN_1);
+        }
+    }
+
+    private static TextEncoding detect(ByteBuffer bytes) {
+        if (startsWith(bytes, UTF_8_BOM)) {
+            return new TextEncoding(StandardCharsets.UTF_8, true);
+        } else if (startsWith(bytes, UTF_16BE_BOM)) {
+            return new TextEncoding(StandardCharsets.UTF_16BE, true);
+        } else if (startsWith(bytes, UTF_16LE_BOM)) {
+            return new TextEncoding(StandardCharsets.UTF_16LE, true);
+        }
+        return UTF_8;
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, byte[] prefix) {
+        if (bytes.limit() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes.get(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(ByteBuffer bytes) {
+        /* Looks at 8 bytes at a time for a high bit */
+        int i = 0;
+        int limit = bytes.limit();
+        for (; i + 8 <= limit; i += 8) {
+            if ((bytes.getLong(i) & 0x8080808080808080L) != 0) {
+                return false;
+            }
+        }
+        for (; i < limit; i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] bomBytes() {
+        if (!bom) {
+            return new byte[0];
+        } else if (charset == StandardCharsets.UTF_8) {
+            return UTF_8_BOM;
+        }
+        return charset == StandardCharsets.UTF_16BE ? UTF_16BE_BOM : UTF_16LE_BOM;
+    }
+
+    private CharSequence decodeAll(ByteBuffer bytes) throws CharacterCodingException {
+        /* Throws if the bytes are not valid in this encoding */
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+        AddBuffer text = new AddBuffer();
+        ByteBuffer in = bytes.duplicate();
+        while (true) {
+            CoderResult result = decoder.decode(in, chars, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            text.append(chars.array(), 0, chars.position());
+            chars.clear();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        decoder.flush(chars);
+        text.append(chars.array(), 0, chars.position());
+        return text;
+    }
+
+    public Encoder newEncoder(WritableByteChannel out) {
+        /* Starts a file, with the byte order mark if the file had one */
+        Encoder encoder = new Encoder(charset, out);
+        encoder.bytes.put(bomBytes());
+        return encoder;
+    }
+
+    /** Turns characters into bytes for one file. Characters this encoding cannot hold are an error */
+    public static class Encoder {
+        private final CharsetEncoder coder;
+        private final WritableByteChannel out;
+        private final CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+        private final ByteBuffer bytes;
+
+        Encoder(Charset charset, WritableByteChannel out) {
+            coder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            this.out = out;
+            bytes = ByteBuffer.allocateDirect((int) (BLOCK_SIZE*coder.maxBytesPerChar()) + UTF_8_BOM.length);
+        }
+
+        public void write(PieceTable text, int start, int end) throws IOException {
+            /* Encodes the characters in [start, end) */
+            while (start < end) {
+                int count = Math.min(end - start, chars.remaining());
+                text.getChars(start, start + count, chars.array(), chars.position());
+                chars.position(chars.position() + count);
+                start += count;
+                chars.flip();
+                encode(false);
+                chars.compact();    //keeps a high surrogate whose low surrogate is in the next block
+            }
+        }
+
+        private void encode(boolean endOfInput) throws IOException {
+            while (true) {
+                CoderResult result = coder.encode(chars, bytes, endOfInput);
+                if (result.isUnmappable()) {
+                    throw new IOException("the document has characters that " + coder.charset() + " cannot hold");
+                } else if (result.isError()) {
+                    result.throwException();
+                }
+                drain();
+                if (result.isUnderflow()) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            bytes.clear();
+        }
+
+        public void finish() throws IOException {
+            /* Writes what is left. A high surrogate at the very end is an error */
+            chars.flip();
+            encode(true);
+            coder.flush(bytes);
+            drain();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return charset.name() + (bom ? " with BOM" : "");
+    }
+}
@@ -0,0 +1,131 @@
+package editor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** TextStatistics counts the characters, words and lines of a document on a background thread.
+* It reads a snapshot, so the document can be edited while it counts and counting a large
+* document never holds up a key press. A count that is still running when a newer snapshot
+* is given is dropped, and a snapshot that was counted already is not counted again. Words
+* are separated by whitespace and lines by newlines, the way wc counts them. */
+public class TextStatistics {
+    private static final int CHUNK_SIZE = 1 << 16;  //characters copied out of the snapshot at a time
+
+    /** Receives the counts. Called with the callback executor given to the constructor */
+    public interface Listener {
+        void counted(Counts counts);
+    }
+
+    /** The counts of one snapshot */
+    public static class Counts {
+        public final int characters;
+        public final long words;
+        public final long lines;
+        public final long nanos;    //time the count took
+
+        Counts(int characters, long words, long lines, long nanos) {
+            this.characters = characters;
+            this.words = words;
+            this.lines = lines;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d characters, %d words, %d lines (counted in %.1f ms)", characters, words, lines, nanos/1e6);
+        }
+    }
+
+    /** One count over a snapshot. Only cancelled is touched by the callback thread */
+    private class Count implements Runnable {
+        private final PieceTable snapshot;
+        private final Listener listener;
+        private volatile boolean cancelled = false;
+
+        Count(PieceTable snapshot, Listener listener) {
+            this.snapshot = snapshot;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            final Counts counts = count(snapshot, this);
+            if (counts == null) {
+                return;
+            }
+            callbacks.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (current == Count.this) {
+                        current = null;
+                        listener.counted(counts);
+                    }
+                }
+            });
+        }
+    }
+
+    /* One counting thread is shared by every document */
+    private static final ExecutorService counter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "statistics");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Executor callbacks;
+    private PieceTable counted;     //snapshot counted last or being counted, only used on the callback thread
+    private Count current;          //count that is running, null if there is none
+
+    /** Constructor */
+    public TextStatistics(Executor callbacks) {
+        this.callbacks = callbacks;
+    }
+
+    public void count(PieceTable snapshot, Listener listener) {
+        /* Call on the callback thread. Does nothing if snapshot was counted already */
+        if (snapshot == counted) {
+            return;
+        }
+        if (current != null) {
+            current.cancelled = true;
+        }
+        counted = snapshot;
+        current = new Count(snapshot, listener);
+        counter.execute(current);
+    }
+
+    private static Counts count(PieceTable text, Count count) {
+        /* Returns null if the count was cancelled */
+        long start = System.nanoTime();
+        char[] chunk = new char[CHUNK_SIZE];
+        long words = 0;
+        long newlines = 0;
+        boolean inWord = false;
+        int length = text.length();
+        for (int from = 0; from < length; from += CHUNK_SIZE) {
+            if (count.cancelled) {
+                return null;
+            }
+            int to = Math.min(length, from + CHUNK_SIZE);
+            text.getChars(from, to, chunk, 0);
+            for (int i = 0; i < to - from; i++) {
+                char c = chunk[i];
+                if (c == '\n') {
+                    newlines += 1;
+                }
+                boolean space = Character.isWhitespace(c);
+                if (!space && !inWord) {
+                    words += 1;
+                }
+                inWord = !space;
+            }
+        }
+        long lines = newlines + (length > 0 && text.charAt(length - 1) != '\n' ? 1 : 0);
+        return new Counts(length, words, lines, System.nanoTime() - start);
+    }
+}
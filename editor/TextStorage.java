@@ -1,323 +1,950 @@
 package editor;
 
-import javafx.scene.text.Text;
-import javafx.scene.text.Font;
-import javafx.scene.Group;
-import java.util.Objects;
-import javafx.geometry.VPos;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.ArrayDeque;
-
-/** TextStorage is a LinkedList data structure meant for storage of 
-* Text Objects. A HashMap is used for quick access to the lines of text.
-* A stack is used for the implementation of undo and redo. */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/** TextStorage keeps the characters of the document in a PieceTable and the cursor as an
+* offset into it. A LineIndex of line lengths is used for quick access to the lines
+* of text. An UndoHistory is used for the implementation of undo and redo.
+* It does not use JavaFX, character widths come from the GlyphMetrics it is given.
+* Paragraphs that are long, like minified files, keep the running widths of their
+* characters in a ParagraphWidths, so that their lines are wrapped and measured by binary
+* search. Wrapping can be turned off, then lines only end at newlines. */
 public class TextStorage {
-    private class Node {
-        Text t = new Text(5.0, 0.0, "");
-        Node prev;
-        Node next;
-    }
-    
-    private class TextEvent {   //Text input/deletion information stored for undo/redo operations
-        Text text;
-        Node nodeOfLastEvent;
-        String action;
-        
-        public TextEvent(Text t, Node n, String s) {
-            text = t;
-            nodeOfLastEvent = n;
-            action = s;
-        }
-    }
-    
-    private Node sentinel;
-    private Node currentNode;   //points to the current Node where the cursor is
-    private HashMap<Integer, Node> lineNumbers; //HashMap that stores the first Node of each line for fast cursor access
-    private static double LINE_HEIGHT;
-    private static double STARTING_TEXT_POSITION_X;
-    private static double STARTING_TEXT_POSITION_Y;
+    private PieceTable text;
+    private int currentPos;     //the cursor is after the character at currentPos - 1, 0 is the beginning
+    private int selectionAnchor = -1;   //the end of the selection that is not at the cursor, -1 if nothing is selected
+    private LineIndex lines;                //length of each displayed line for fast cursor access
+    private boolean layoutValid = false;    //false if every line has to be wrapped again
+    private double layoutWidth;             //xMax of the last reformat, infinite without wrapping
+    private boolean wrapping = true;        //false to end lines only at newlines
+    private int layoutVersion = 0;          //counts the layouts made from scratch, so that a LayoutJob can tell it is stale
+    private int dirtyStart = -1;            //first offset edited since the last reformat, -1 if nothing was edited
+    private int dirtyEnd;                   //end of the edited text since the last reformat
+    private int dirtyDelta;                 //number of characters added (negative if removed) since the last reformat
+    private static final int RUN_SIZE = 65536;  //about how many characters go into a run that is wrapped later
+    private final GlyphMetrics glyphs;      //widths of the characters in the current font, made exact to add
+    private static final int LONG_PARAGRAPH = 4096; //characters of a line, or of wrapped lines in a row, that make a paragraph long
+    private static final int PARAGRAPHS_KEPT = 4;
+    private final ArrayList<ParagraphWidths> paragraphs = new ArrayList<ParagraphWidths>();  //long paragraphs, the last used first
+    private int softWrapStart = -1;         //first line of the wrapped lines in a row that ended at softWrapEnd
+    private int softWrapEnd = -1;
+    private double lineHeight;
+    private final double startX;            //where lines begin
+    private final double startY;            //where the first line begins
     private static final int STARTING_FONT_SIZE = 12;
-    private static int fontSize = STARTING_FONT_SIZE;
-    private static String fontName = "Verdana";
-    private static ArrayDeque<TextEvent> undo;
-    private static ArrayDeque<TextEvent> redo;
-    private static boolean undoing = false;
-    
+    private int fontSize = STARTING_FONT_SIZE;
+    private String fontName = "Verdana";
+    private static final long UNDO_BYTES = Long.getLong("editor.undoBytes", 16 << 20);   //memory allowed for the undo history
+    private UndoHistory history;
+    private long linesWrapped = 0;      //lines wrapped on this thread so far, the background layout is not counted
+    private final ArrayList<EditListener> editListeners = new ArrayList<EditListener>();
+
+    /** Rounds the widths of other GlyphMetrics to a multiple of 1/65536 of a pixel. Sums of such
+    * widths are exact, so a stretch of text measures the same whichever way it is added up */
+    static class ExactWidths implements GlyphMetrics {
+        private static final double UNIT = 1 << 16;     //width steps in a pixel
+        private final GlyphMetrics glyphs;
+
+        ExactWidths(GlyphMetrics glyphs) {
+            this.glyphs = glyphs;
+        }
+
+        @Override
+        public void setFont(String fontName, int fontSize) {
+            glyphs.setFont(fontName, fontSize);
+        }
+
+        @Override
+        public double width(int codePoint) {
+            return Math.rint(glyphs.width(codePoint)*UNIT)/UNIT;
+        }
+
+        @Override
+        public double lineHeight() {
+            return glyphs.lineHeight();
+        }
+    }
+
+    /** Told about every change to the text, right after it is made */
+    public interface EditListener {
+        void edited(int offset, int removed, CharSequence inserted);
+    }
+
     /** Constructor */
-    public TextStorage(double startingX, double startingY) {
-        sentinel = new Node();
-        currentNode = sentinel;
-        sentinel.prev = sentinel;
-        sentinel.next = sentinel;
-        Text tempHeight = charToText(0, 0, "a");
-        LINE_HEIGHT = tempHeight.getLayoutBounds().getHeight();
-        STARTING_TEXT_POSITION_X = startingX;
-        STARTING_TEXT_POSITION_Y = startingY;
-        lineNumbers = new HashMap<Integer, Node>();
-        undo = new ArrayDeque<TextEvent>(100);
-        redo = new ArrayDeque<TextEvent>(100);
-    }
-    
+    public TextStorage(double startingX, double startingY, GlyphMetrics glyphs) {
+        text = new PieceTable("");
+        currentPos = 0;
+        this.glyphs = new ExactWidths(glyphs);
+        glyphs.setFont(fontName, fontSize);
+        lineHeight = glyphs.lineHeight();
+        startX = startingX;
+        startY = startingY;
+        lines = new LineIndex();
+        history = new UndoHistory(UNDO_BYTES);
+    }
+
+    public void loadText(CharSequence contents) {
+        /* Uses the contents of a file as the original text, leaving the cursor at the end */
+        text = new PieceTable(contents);
+        currentPos = text.length();
+        selectionAnchor = -1;
+        layoutValid = false;
+        dirtyStart = -1;
+        paragraphs.clear();
+        history = new UndoHistory(UNDO_BYTES);
+    }
+
     public boolean isBeginning() {
-        return currentNode == sentinel;
+        return currentPos == 0;
     }
-    
+
     public boolean isEnd() {
-        return currentNode.next == sentinel;
+        return currentPos == text.length();
+    }
+
+    public double getCurrX() {
+        return isBeginning() ? startX : xOf(currentPos - 1);
+    }
+
+    public double getCurrY() {
+        return isBeginning() ? startY : yOf(currentPos - 1);
+    }
+
+    public double getCurrWidth() {
+        return isBeginning() ? 0 : charWidth(text.charAt(currentPos - 1));
+    }
+
+    public int lineCount() {
+        return lines.size();
+    }
+
+    public String getLineText(int line) {
+        /* Returns the characters displayed on the line, without the newline ending it */
+        return getLineText(line, 0, Integer.MAX_VALUE);
+    }
+
+    public String getLineText(int line, int from, int to) {
+        /* Returns the characters of the line that are in [from, to), without the newline ending it */
+        layoutLines(line, line);
+        int start = Math.max(from, lines.start(line));
+        int end = Math.min(to, lineEnd(line));
+        if (end > start && text.charAt(end - 1) == '\n') {
+            end -= 1;
+        }
+        return start < end ? text.getText(start, end) : "";
+    }
+
+    public double lineX() {
+        return startX;
+    }
+
+    public double lineY(int line) {
+        return startY + line*lineHeight;
+    }
+
+    public double lineHeight() {
+        return lineHeight;
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    public int offsetAtY(double y) {
+        /* Returns the start of the line displayed at y */
+        int line = Math.min(calcLineNumber(Math.max(0, y)), lines.size() - 1);
+        return line < 0 ? 0 : lines.start(line);
     }
-    
-    public Text getCurrText() {
-        return currentNode.t;
+
+    public double yOfOffset(int offset) {
+        return yOf(offset);
     }
-    
+
     public double totalHeightOfLines() {
-        return Math.ceil(LINE_HEIGHT*(lineNumbers.size()));
-    }
-    
-    private void addChar(Text text) {   
-        /* Adds Text to the end of the list. Undo information is stored. */
-        Node n = new Node();
-        n.t = text;
-        n.prev = currentNode;
-        n.next = currentNode.next;
-        currentNode.next.prev = n;
-        currentNode.next = n;
-        currentNode = n;
-        
-        if (!undoing) {
-            if (undo.size() == 100) {
-                undo.removeLast();
+        return Math.ceil(lineHeight*(lines.size()));
+    }
+
+    private void addChar(char c) {
+        /* Adds the char after the cursor. Undo information is stored. */
+        String added = String.valueOf(c);
+        insertText(currentPos, added);
+        history.recordInsert(currentPos, added);
+        currentPos += 1;
+    }
+
+    private void insertText(int offset, CharSequence s) {
+        text = text.insert(offset, s);
+        markEdited(offset, 0, s.length());
+        paragraphsEdited(offset, 0, s);
+        selectionAnchor = -1;
+        for (EditListener listener : editListeners) {
+            listener.edited(offset, 0, s);
+        }
+    }
+
+    private void deleteText(int offset, int length) {
+        text = text.delete(offset, length);
+        markEdited(offset, length, 0);
+        paragraphsEdited(offset, length, "");
+        selectionAnchor = -1;
+        for (EditListener listener : editListeners) {
+            listener.edited(offset, length, "");
+        }
+    }
+
+    public void appendText(CharSequence s) {
+        /* Adds s at the end of the document, like the lines another program writes to the end of a
+         * file. It is not undone, and the cursor and the selection stay where they are. Whole
+         * paragraphs of more than RUN_SIZE characters go into the LineIndex as pending runs, as in a
+         * document that was just opened, so they are only wrapped when they are shown */
+        int head = 0;   //characters that finish the last paragraph
+        if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+            while (head < s.length() && s.charAt(head) != '\n') {
+                head += 1;
             }
-            undo.push(new TextEvent(text, currentNode, "ADD"));
+            head = Math.min(s.length(), head + 1);
+        }
+        CharSequence rest = s.subSequence(head, s.length());
+        if (!layoutValid || dirtyStart != -1 || rest.length() < RUN_SIZE) {
+            append(s);
+            return;
         }
+        if (head > 0) {
+            append(s.subSequence(0, head));
+            reflow(layoutWidth);
+            dirtyStart = -1;
+        }
+        int start = text.length();
+        double charsPerLine = (double) start/lines.size();
+        text = text.insert(start, rest);
+        paragraphsEdited(start, 0, rest);
+        while (start < text.length()) {
+            int end = runEnd(start);
+            lines.addPending(end - start, (int) Math.ceil((end - start)/charsPerLine));
+            start = end;
+        }
+        for (EditListener listener : editListeners) {
+            listener.edited(text.length() - rest.length(), 0, rest);
+        }
+    }
+
+    private void append(CharSequence s) {
+        /* Adds s at the end, to be wrapped at the next reformat */
+        int offset = text.length();
+        text = text.insert(offset, s);
+        markEdited(offset, 0, s.length());
+        paragraphsEdited(offset, 0, s);
+        for (EditListener listener : editListeners) {
+            listener.edited(offset, 0, s);
+        }
+    }
+
+    public void replayEdit(int offset, int removed, CharSequence inserted) {
+        /* Makes an edit that was read back from an EditJournal, without undo information. The cursor ends up after it */
+        if (removed > 0) {
+            deleteText(offset, removed);
+        }
+        if (inserted.length() > 0) {
+            insertText(offset, inserted);
+        }
+        currentPos = offset + inserted.length();
+    }
+
+    public void addEditListener(EditListener listener) {
+        editListeners.add(listener);
     }
-    
+
+    public void removeEditListener(EditListener listener) {
+        editListeners.remove(listener);
+    }
+
     public boolean isFirstCharOfLine() {
-        return lineNumbers.containsValue(currentNode);
+        return isFirstCharOfLine(currentPos - 1);
+    }
+
+    private boolean isFirstCharOfLine(int offset) {
+        int line = lineOf(offset);
+        return offset >= 0 && line >= 0 && lines.start(line) == offset;
+    }
+
+    private int lineOf(int offset) {
+        /* Returns the line that the character at offset is displayed on, wrapping it first if needed */
+        int line = lines.lineOf(offset);
+        if (line >= 0 && lines.isPending(line)) {
+            layoutRun(line);
+            line = lines.lineOf(offset);
+        }
+        return line;
+    }
+
+    public int lineStart(int line) {
+        return lines.start(line);
+    }
+
+    public int lineEnd(int line) {
+        return lines.start(line) + lines.length(line);
     }
-    
-    private boolean isFirstCharOfLine(Node node) {
-        return lineNumbers.containsValue(node);
+
+    private double xOf(int offset) {
+        int line = lineOf(offset);
+        if (line < 0) {
+            return startX;
+        }
+        return startX + advance(lines.start(line), offset);
     }
-    
-    public void moveToPreviousNode() {  
+
+    public double offsetX(int line, int offset) {
+        /* x of the left edge of the character at offset, which is on line */
+        return startX + advance(lines.start(line), offset);
+    }
+
+    public int offsetAtX(int line, double x) {
+        /* Returns the character of the line that x is over, the last one before the newline if x is
+         * past the end. Characters left of the line are taken to be over its first one */
+        layoutLines(line, line);
+        int start = lines.start(line);
+        int end = lineEnd(line);
+        int last = end > start && text.charAt(end - 1) == '\n' ? Math.max(start, end - 2) : end - 1;
+        ParagraphWidths paragraph = paragraphFor(start, end);
+        if (paragraph != null) {
+            return Math.max(start, Math.min(last, paragraph.reaching(text, start, 0, x - startX)));
+        }
+        int i = start;
+        double currX = startX;
+        while (i < last && currX + charWidth(text.charAt(i)) < x) {
+            currX += charWidth(text.charAt(i));
+            i += 1;
+        }
+        return i;
+    }
+
+    private double advance(int from, int to) {
+        /* Width of [from, to) on one line */
+        ParagraphWidths paragraph = paragraphFor(from, to);
+        if (paragraph != null) {
+            return paragraph.width(text, from, to);
+        }
+        double width = 0;
+        for (int i = from; i < to; i++) {
+            width += charWidth(text.charAt(i));
+        }
+        return width;
+    }
+
+    private ParagraphWidths paragraphFor(int from, int to) {
+        /* Returns the widths of a long paragraph that holds [from, to), measuring it if the range
+         * is long itself. Null if the range is short and no paragraph that holds it is kept */
+        for (int i = 0; i < paragraphs.size(); i++) {
+            ParagraphWidths paragraph = paragraphs.get(i);
+            if (paragraph.covers(from, to)) {
+                paragraphs.add(0, paragraphs.remove(i));
+                return paragraph;
+            }
+        }
+        if (to - from < LONG_PARAGRAPH) {
+            return null;
+        }
+        ParagraphWidths paragraph = new ParagraphWidths(text, from, glyphs);
+        keep(paragraph);
+        return paragraph;
+    }
+
+    private void keep(ParagraphWidths paragraph) {
+        paragraphs.add(0, paragraph);
+        if (paragraphs.size() > PARAGRAPHS_KEPT) {
+            paragraphs.remove(paragraphs.size() - 1);
+        }
+    }
+
+    private void paragraphsEdited(int offset, int removed, CharSequence inserted) {
+        for (int i = paragraphs.size() - 1; i >= 0; i--) {
+            if (!paragraphs.get(i).edited(offset, removed, inserted)) {
+                paragraphs.remove(i);
+            }
+        }
+    }
+
+    private double yOf(int offset) {
+        return startY + Math.max(0, lineOf(offset))*lineHeight;
+    }
+
+    public void moveToPreviousNode() {
         /* If there is a newline before on the previous line, skip it */
-        if (currentNode.prev.t.getText().equals("\n") && !this.isFirstCharOfLine(currentNode.prev)) {
-            currentNode = currentNode.prev.prev;
-        } else {    
-            currentNode = currentNode.prev;
+        if (isBeginning()) {
+            return;
+        }
+        int prev = currentPos - 2;
+        if (prev >= 0 && text.charAt(prev) == '\n' && !this.isFirstCharOfLine(prev)) {
+            currentPos -= 2;
+        } else {
+            currentPos -= 1;
         }
     }
-    
-    public void moveToNextNode() {  
+
+    public void moveToNextNode() {
         /* If there is a newline next on the same line, skip it */
-        if (currentNode.next.t.getText().equals("\n") && !this.isFirstCharOfLine(currentNode.next)) {
-            currentNode = currentNode.next.next;
+        if (isEnd()) {
+            return;
+        }
+        if (text.charAt(currentPos) == '\n' && !this.isFirstCharOfLine(currentPos)) {
+            currentPos = Math.min(currentPos + 2, text.length());
         } else {
-            currentNode = currentNode.next;
+            currentPos += 1;
         }
     }
-    
+
     public void moveToLastNode() {
-        currentNode = sentinel.prev;
+        currentPos = text.length();
+    }
+
+    public void moveTo(int offset) {
+        /* The cursor goes after the character at offset - 1 */
+        currentPos = Math.max(0, Math.min(offset, text.length()));
     }
-    
+
+    public int getCurrentPos() {
+        return currentPos;
+    }
+
     public boolean isNewline() {
-        return currentNode.t.getText().equals("\n");
+        return !isBeginning() && text.charAt(currentPos - 1) == '\n';
     }
-    
+
     public boolean moveToClosestNode(double xPos, double yPos, int scrollOffset) {
-        /* Returns Node closest to input coordinates or null if invalid coordinates or position is after the last line possible */
+        /* Moves to the character closest to the input coordinates. Returns false if invalid coordinates or position is after the last line possible */
         int lineNum = calcLineNumber(yPos + scrollOffset);
-        Node nodeInLine = lineNumbers.get(lineNum);
-        if (nodeInLine == null) {
+        layoutLines(lineNum, lineNum);
+        if (lineNum < 0 || lineNum >= lines.size()) {
             return false;
-        } else {
-            while (nodeInLine.t.getX() + Editor.getTextWidth(nodeInLine.t) < xPos) {
-                if ((nodeInLine.t.getText().equals("\n")) || (nodeInLine.next == sentinel) || (nodeInLine.next.t.getText().equals("\n"))) {
-                    break;
-                }
-                nodeInLine = nodeInLine.next;
-            }
-            currentNode = nodeInLine;
         }
+        currentPos = offsetAtX(lineNum, xPos) + 1;
         return true;
     }
-    
-    private Text deleteChar() {
-        Text ret = currentNode.t;
-        if (!undoing) {
-            if (undo.size() == 100) {
-                undo.removeLast();
+
+    private char deleteChar() {
+        char deleted = text.charAt(currentPos - 1);
+        history.recordDelete(currentPos - 1, String.valueOf(deleted));
+        deleteText(currentPos - 1, 1);
+        currentPos -= 1;
+        return deleted;
+    }
+
+    public void addCharToTextStorage(String c) {
+        for (int i = 0; i < c.length(); i++) {
+            this.addChar(c.charAt(i));
+        }
+    }
+
+    public void typeText(CharSequence s) {
+        /* Inserts characters that were typed in one edit. They go into the undo history as typing, so they
+         * merge with the typing around them and a newline still ends an undo step. Typing over a selection
+         * replaces it in the same undo step as the first line typed */
+        if (s.length() == 0) {
+            return;
+        }
+        if (hasSelection()) {
+            int line = 1;
+            while (line < s.length() && s.charAt(line - 1) != '\n') {
+                line += 1;
+            }
+            int start = selectionStart();
+            int end = selectionEnd();
+            history.recordTypedReplace(start, text.getText(start, end), s.subSequence(0, line));
+            replaceText(start, end - start, s.subSequence(0, line));
+            typeText(s.subSequence(line, s.length()));
+            return;
+        }
+        insertText(currentPos, s);
+        int from = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\n' || i == s.length() - 1) {
+                history.recordInsert(currentPos + from, s.subSequence(from, i + 1));
+                from = i + 1;
             }
-            undo.push(new TextEvent(currentNode.t, currentNode.prev, "DELETE"));
         }
-        
-        currentNode.prev.next = currentNode.next;
-        currentNode.next.prev = currentNode.prev;
-        currentNode = currentNode.prev;
-        return ret;
+        currentPos += s.length();
     }
-    
-    public void addCharToTextStorage(double x, double y, String c, Group root) {
-        Text toBeAdded = charToText(x, y, c);
-        this.addChar(toBeAdded);
-        if (!c.equals("\n")) {
-            root.getChildren().add(toBeAdded);
+
+    public void insertTextAtCursor(CharSequence s) {
+        /* Inserts a whole string in one edit, with a single undo entry, leaving the cursor after it */
+        if (s.length() == 0) {
+            return;
         }
+        insertText(currentPos, s);
+        history.recordEdit(UndoHistory.Op.INSERT, currentPos, s);
+        currentPos += s.length();
     }
-    
-    public void deleteCharFromTextStorage(Group root) {
-        Text deleted = this.deleteChar();
-        root.getChildren().remove(deleted);
+
+    public void replaceSelection(CharSequence s) {
+        /* Puts s in place of the selection in one edit with a single undo entry, leaving the cursor
+         * after it. Without a selection s is inserted at the cursor */
+        if (!hasSelection()) {
+            selectionAnchor = -1;
+            insertTextAtCursor(s);
+            return;
+        }
+        int start = selectionStart();
+        int end = selectionEnd();
+        history.recordReplace(start, text.getText(start, end), s);
+        replaceText(start, end - start, s);
+    }
+
+    public void deleteCharFromTextStorage() {
+        if (!isBeginning()) {
+            this.deleteChar();
+        }
+    }
+
+    public void startSelection() {
+        /* Anchors a selection at the cursor, unless one is being made already. Moving the cursor then selects */
+        if (selectionAnchor == -1) {
+            selectionAnchor = currentPos;
+        }
     }
-    
+
+    public void clearSelection() {
+        selectionAnchor = -1;
+    }
+
+    public boolean hasSelection() {
+        return selectionAnchor != -1 && selectionAnchor != currentPos;
+    }
+
+    public int selectionStart() {
+        return Math.min(selectionAnchor, currentPos);
+    }
+
+    public int selectionEnd() {
+        return Math.max(selectionAnchor, currentPos);
+    }
+
+    public String getSelectedText() {
+        return hasSelection() ? text.getText(selectionStart(), selectionEnd()) : "";
+    }
+
+    public void deleteSelection() {
+        /* Deletes the whole span in one edit with a single undo entry, the cursor goes where it began */
+        if (!hasSelection()) {
+            selectionAnchor = -1;
+            return;
+        }
+        int start = selectionStart();
+        int end = selectionEnd();
+        history.recordEdit(UndoHistory.Op.DELETE, start, text.getText(start, end));
+        deleteText(start, end - start);
+        currentPos = start;
+    }
+
+    public double[] selectionBounds(int line) {
+        /* Returns the left and right x of the selected part of a line, null if none of it is selected */
+        if (!hasSelection()) {
+            return null;
+        }
+        return rangeBounds(line, selectionStart(), selectionEnd());
+    }
+
+    public double[] rangeBounds(int line, int rangeStart, int rangeEnd) {
+        /* Returns the left and right x of the part of a line in [rangeStart, rangeEnd), null if
+         * the line has none of it. A newline in the range is shown as wide as a space */
+        if (line < 0 || line >= lines.size()) {
+            return null;
+        }
+        layoutLines(line, line);
+        int lineStart = lines.start(line);
+        int start = Math.max(lineStart, rangeStart);
+        int end = Math.min(lineEnd(line), rangeEnd);
+        if (start >= end) {
+            return null;
+        }
+        double left = startX + advance(lineStart, start);
+        double right = left + advance(start, end);
+        if (text.charAt(end - 1) == '\n') {
+            right += glyphs.width(' ');
+        }
+        return new double[] {left, right};
+    }
+
     public boolean leftOfCurrText(double xPos) {
-        return (currentNode.t.getX() + 0.5*Editor.getTextWidth(currentNode.t) > xPos);
-    }
-    
-    public static Text charToText(double xPos, double yPos, String c) {
-        /* Converts the char to Text and applies all necessary modifications */
-            Text toBeAdded = new Text(xPos, yPos, c);
-            toBeAdded.setTextOrigin(VPos.TOP);
-            toBeAdded.setFont(Font.font(fontName, fontSize));
-            toBeAdded.toFront();
-            return toBeAdded;
-        }
-    
-    public void changeFontSize(int increment, Cursor cursor) {
-        /* Could have optimized by implementing in reformatText, but using two loops for simplicity */
+        return (getCurrX() + 0.5*getCurrWidth() > xPos);
+    }
+
+    private double charWidth(char c) {
+        /* Newlines take no space on the line */
+        if (c == '\n') {
+            return 0;
+        }
+        return glyphs.width(c);
+    }
+
+    public void changeFontSize(int increment) {
+        /* Only the scale of the glyph widths changes here. reformatText wraps the first run
+         * again, the lines on screen are wrapped when they are drawn and a LayoutWorker
+         * does the rest of the document later */
         if (increment >= 0) {
             fontSize += increment;
         } else {    //If negative increment, cannot go below zero
             fontSize = Math.max(0, fontSize + increment);
         }
-        Text tempHeight = charToText(0, 0, "a");
-        LINE_HEIGHT = tempHeight.getLayoutBounds().getHeight();
-        cursor.changeCursorHeight(LINE_HEIGHT);
-        Node runner = sentinel.next;
-        while (runner != sentinel) {
-            runner.t.setFont(Font.font(fontName, fontSize));
-            runner = runner.next;
-        }
+        glyphs.setFont(fontName, fontSize);
+        lineHeight = glyphs.lineHeight();
+        layoutValid = false;
+        paragraphs.clear();
+    }
+
+    public void setWrapping(boolean wrapping) {
+        /* Without wrapping every paragraph is one line, as wide as it is */
+        this.wrapping = wrapping;
+        layoutValid = false;
     }
-    
+
+    public boolean isWrapping() {
+        return wrapping;
+    }
+
     private int calcLineNumber(double y) {
-        return (int) (y/LINE_HEIGHT);
-    }
-    
-    public void undoAction(Group root) {
-        if (!undo.isEmpty()) {
-            undoing = true;
-            TextEvent event = undo.pop();
-            redo.push(event);
-            currentNode = event.nodeOfLastEvent;
-            if (event.action.equals("ADD")) {
-                this.deleteCharFromTextStorage(root);
-            } else if (event.action.equals("DELETE")) {
-                Text toBeAdded = event.text;
-                this.addChar(toBeAdded);
-                if (!toBeAdded.getText().equals("\n")) {
-                    root.getChildren().add(toBeAdded);
+        return (int) (y/lineHeight);
+    }
+
+    public void undoAction() {
+        UndoHistory.Edit edit = history.undo();
+        if (edit == null) {
+            return;
+        }
+        if (edit.op() == UndoHistory.Op.INSERT) {
+            deleteText(edit.offset(), edit.length());
+            currentPos = edit.offset();
+        } else if (edit.op() == UndoHistory.Op.REPLACE) {
+            replaceText(edit.offset(), edit.length(), edit.replaced());
+        } else {
+            insertText(edit.offset(), edit.text());
+            currentPos = edit.offset() + edit.length();
+        }
+    }
+
+    public void clearRedo() {
+        history.clearRedo();
+    }
+
+    public void redoAction() {
+        UndoHistory.Edit edit = history.redo();
+        if (edit == null) {
+            return;
+        }
+        if (edit.op() == UndoHistory.Op.INSERT) {
+            insertText(edit.offset(), edit.text());
+            currentPos = edit.offset() + edit.length();
+        } else if (edit.op() == UndoHistory.Op.REPLACE) {
+            replaceText(edit.offset(), edit.replaced().length(), edit.text());
+        } else {
+            deleteText(edit.offset(), edit.length());
+            currentPos = edit.offset();
+        }
+    }
+
+    private void replaceText(int offset, int length, CharSequence s) {
+        /* Puts s in place of the length characters at offset, leaving the cursor after it */
+        if (length > 0) {
+            deleteText(offset, length);
+        }
+        if (s.length() > 0) {
+            insertText(offset, s);
+        }
+        currentPos = offset + s.length();
+    }
+
+    private void markEdited(int offset, int removed, int inserted) {
+        /* Grows the edited region so that the next reformat knows where to start and when it can stop */
+        if (dirtyStart == -1) {
+            dirtyStart = offset;
+            dirtyEnd = offset + inserted;
+            dirtyDelta = inserted - removed;
+            return;
+        }
+        if (dirtyEnd <= offset) {
+            dirtyEnd = offset + inserted;
+        } else if (dirtyEnd >= offset + removed) {
+            dirtyEnd += inserted - removed;
+        } else {    //the removed text included the end of the edited region
+            dirtyEnd = offset + inserted;
+        }
+        dirtyStart = Math.min(dirtyStart, offset);
+        dirtyDelta += inserted - removed;
+    }
+
+    public void reformatText(double xMax, double yMax) {
+        /* Recalculates the line starts and textwraps. xMax and yMax are the window limits.
+         * After an edit only the lines from the edit until the wraps line up again are redone */
+        if (!wrapping) {
+            xMax = Double.POSITIVE_INFINITY;
+        }
+        if (!layoutValid || xMax != layoutWidth) {
+            layoutLazily(xMax);
+            layoutValid = true;
+        } else if (dirtyStart != -1) {
+            reflow(xMax);
+        }
+        dirtyStart = -1;
+    }
+
+    private void layoutLazily(double xMax) {
+        /* Splits the document at newlines into runs of about RUN_SIZE characters. Only the first
+         * run is wrapped now, the others are wrapped when they are needed. Until then their
+         * number of lines is estimated from the first run */
+        lines.clear();
+        layoutWidth = xMax;
+        layoutVersion += 1;
+        double charsPerLine = 1;
+        int start = 0;
+        while (start < text.length()) {
+            int end = runEnd(start);
+            if (start == 0) {
+                int next = 0;
+                while (next < end) {
+                    int lineStart = next;
+                    next = nextLineStart(lineStart, xMax);
+                    lines.add(next - lineStart);
                 }
+                charsPerLine = (double) end/lines.size();
+            } else {
+                lines.addPending(end - start, (int) Math.ceil((end - start)/charsPerLine));
             }
+            start = end;
         }
-        undoing = false;
     }
-    
-    public void clearRedo() {
-        redo.clear();
-    }
-    
-    public void redoAction(Group root) {
-        if (!redo.isEmpty()) {
-            undoing = true;
-            TextEvent event = redo.pop();
-            undo.push(event);
-            if (event.action.equals("ADD")) {
-                Text toBeAdded = event.text;
-                this.addChar(toBeAdded);
-                if (!toBeAdded.getText().equals("\n")) {
-                    root.getChildren().add(toBeAdded);
+
+    private int runEnd(int start) {
+        /* A run always ends after a newline or at the end of the document */
+        int end = start + RUN_SIZE;
+        if (end >= text.length()) {
+            return text.length();
+        }
+        int newline = text.indexOf('\n', end - 1);
+        return newline == -1 ? text.length() : newline + 1;
+    }
+
+    public void layoutLines(int firstLine, int lastLine) {
+        /* Wraps the pending runs among the lines so that they can be shown */
+        int line = Math.max(0, firstLine);
+        while (line <= lastLine && line < lines.size()) {
+            if (lines.isPending(line)) {
+                layoutRun(line);
+            } else {
+                line += 1;
+            }
+        }
+    }
+
+    /** The pending runs of a layout, taken to be wrapped on other threads. The text and
+    * the layout it belongs to are kept, so that its lines are only used while both are current */
+    public static class LayoutJob {
+        final PieceTable text;
+        final int[] starts;         //run i is [starts[i], ends[i])
+        final int[] ends;
+        final double width;
+        final double startX;
+        final int version;
+        volatile boolean cancelled = false;
+
+        LayoutJob(PieceTable text, int[] starts, int[] ends, double width, double startX, int version) {
+            this.text = text;
+            this.starts = starts;
+            this.ends = ends;
+            this.width = width;
+            this.startX = startX;
+            this.version = version;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    public LayoutJob pendingLayout() {
+        /* Returns the runs that are not wrapped yet, null if there are none or an edit is not reformatted yet */
+        if (!layoutValid || dirtyStart != -1) {
+            return null;
+        }
+        int[] runLines = lines.pendingRunLines();
+        if (runLines.length == 0) {
+            return null;
+        }
+        int[] starts = new int[runLines.length];
+        int[] ends = new int[runLines.length];
+        for (int i = 0; i < runLines.length; i++) {
+            starts[i] = lines.start(runLines[i]);
+            ends[i] = Math.min(starts[i] + lines.length(runLines[i]), text.length());
+        }
+        return new LayoutJob(text, starts, ends, layoutWidth, startX, layoutVersion);
+    }
+
+    boolean isCurrent(LayoutJob job) {
+        return layoutValid && dirtyStart == -1 && job.text == text && job.version == layoutVersion;
+    }
+
+    GlyphMetrics measure(BitSet used) {
+        /* Widths of the characters in used, that other threads can read */
+        return ParallelLayout.measure(used, glyphs);
+    }
+
+    boolean applyLayout(LayoutJob job, LineIndex.Block[] blocks) {
+        /* Puts the lines of the job in place of the runs that are still pending. Runs that were
+         * wrapped meanwhile to be shown are skipped. Returns false if the job is stale */
+        if (!isCurrent(job)) {
+            return false;
+        }
+        for (int i = job.starts.length - 1; i >= 0; i--) {
+            int line = lines.lineOf(job.starts[i]);
+            if (blocks[i] != null && line >= 0 && lines.isPending(line) && lines.start(line) == job.starts[i]) {
+                lines.replace(line, line + lines.runLines(line), blocks[i]);
+            }
+        }
+        return true;
+    }
+
+    public void layoutPendingRunsInParallel(ForkJoinPool pool) {
+        /* Wraps every pending run at once on the pool, waiting for it to finish */
+        LayoutJob job = pendingLayout();
+        if (job == null) {
+            return;
+        }
+        GlyphMetrics widths = measure(ParallelLayout.scan(pool, job));
+        applyLayout(job, ParallelLayout.wrap(pool, job, widths));
+    }
+
+    private void layoutRun(int line) {
+        /* Replaces the estimate of a pending run with its real lines */
+        int first = lines.runFirstLine(line);
+        int start = lines.start(first);
+        int end = Math.min(start + lines.length(first), text.length());
+        int[] newStarts = new int[16];
+        int count = 0;
+        while (start < end) {
+            if (count == newStarts.length) {
+                newStarts = Arrays.copyOf(newStarts, 2*count);
+            }
+            newStarts[count] = start;
+            count += 1;
+            start = nextLineStart(start, layoutWidth);
+        }
+        lines.replace(first, first + lines.runLines(first), newStarts, count, 0);
+    }
+
+    private void reflow(double xMax) {
+        /* Starts a few lines before the edit, because a shorter first word may now fit on the line above.
+         * Where a line wraps depends on its own characters and at most on the start of the line after
+         * the next one, so an edit cannot reach more than three lines back. A pending run starts a
+         * paragraph, so nothing before it can change */
+        int editLine = lines.lineOf(dirtyStart);
+        int firstLine = Math.max(0, editLine - 3);
+        if (editLine >= 0 && lines.isPending(editLine)) {
+            firstLine = lines.runFirstLine(editLine);
+        } else {
+            for (int line = editLine - 1; line >= firstLine; line--) {
+                if (lines.isPending(line)) {
+                    firstLine = lines.runFirstLine(line) + lines.runLines(line);
+                    break;
+                }
+            }
+        }
+        int start = firstLine < lines.size() ? lines.start(firstLine) : 0;
+        int oldLine = lines.size();    //first old line that is still valid after the new lines
+        int[] newStarts = new int[16];
+        int count = 0;
+        while (start < text.length()) {
+            if (start >= dirtyEnd && count > 0) {
+                int match = lines.indexOf(start - dirtyDelta);
+                if (match > firstLine) {
+                    oldLine = match;
+                    break;
                 }
-            } else if (event.action.equals("DELETE")) {
-                currentNode = event.nodeOfLastEvent.next;
-                this.deleteCharFromTextStorage(root);
             }
+            if (count == newStarts.length) {
+                newStarts = Arrays.copyOf(newStarts, 2*count);
+            }
+            newStarts[count] = start;
+            count += 1;
+            start = nextLineStart(start, xMax);
         }
-        undoing = false;
+        lines.replace(firstLine, oldLine, newStarts, count, dirtyDelta);
     }
-    
-    public void reformatText(double xMax, double yMax) {
-        /* Recalculates all of the text positions and textwraps. xMax and yMax are the window limits */
-        Node prevSpace = null;  //Has there been a space on this line yet?
-        lineNumbers.clear();
-        boolean isStartNextLine = true;
-        Node runner = sentinel.next;
-        double currX = STARTING_TEXT_POSITION_X;
-        double currY = STARTING_TEXT_POSITION_Y;
-        while (runner != sentinel) {
-            Text text = runner.t;
+
+    private int nextLineStart(int start, double xMax) {
+        /* A paragraph is measured once it has had LONG_PARAGRAPH characters of wrapped lines in a row,
+         * its later lines are then wrapped by binary search */
+        linesWrapped += 1;
+        ParagraphWidths paragraph = xMax == Double.POSITIVE_INFINITY ? null : paragraphFor(start, start + 1);
+        if (paragraph != null) {
+            return paragraph.nextLineStart(text, start, xMax - startX);
+        }
+        int next = nextLineStart(text, start, xMax, startX, glyphs);
+        if (start != softWrapEnd || text.charAt(start - 1) == '\n') {
+            softWrapStart = start;
+        }
+        softWrapEnd = next;
+        if (next - softWrapStart >= LONG_PARAGRAPH && next < text.length() && text.charAt(next - 1) != '\n'
+                && paragraphFor(next, next + 1) == null) {
+            keep(new ParagraphWidths(text, softWrapStart, glyphs));
+        }
+        return next;
+    }
+
+    static int nextLineStart(PieceTable text, int start, double xMax, double startX, GlyphMetrics glyphs) {
+        /* Returns where the line beginning at start wraps. ParallelLayout uses it too, with widths that were measured beforehand.
+         * An infinite xMax only ends lines at newlines */
+        if (xMax == Double.POSITIVE_INFINITY) {
+            int newline = text.indexOf('\n', start);
+            return newline == -1 ? text.length() : newline + 1;
+        }
+        int prevSpace = -1;     //Has there been a space on this line yet?
+        int i = start;
+        int length = text.length();
+        double currX = startX;
+        while (i < length) {
+            char c = text.charAt(i);
+            double width = c == '\n' ? 0 : glyphs.width(c);
             // Keep track of the words between spaces
-            if (Objects.equals(text.getText(), " ")) {
-                prevSpace = runner;
+            if (c == ' ') {
+                prevSpace = i;
             }
             // If reach end of line, newline
-                if (currX + Editor.getTextWidth(text) >= xMax) { 
-                    /* If there had a been a space earlier and the right edge is reached, wrap the text starting from that earlier space */
-                    if (runner.t.getText().equals(" ")) {
-                        text.setX(currX);
-                        text.setY(currY);
-                        runner = runner.next;
-                        continue;
-                    }
-                    if (prevSpace != null) {
-                        runner = prevSpace.next;
-                        text = runner.t;
-                    }
-                    currX = STARTING_TEXT_POSITION_X;
-                    currY += LINE_HEIGHT;
-                    isStartNextLine = true;
+            if (currX + width >= xMax && i != start) {
+                /* Spaces stay at the end of the line. If there had a been a space earlier and the right edge is reached, wrap the text starting from that earlier space */
+                if (c == ' ') {
+                    i += 1;
+                    continue;
                 }
-                
-                if (isStartNextLine && currX == STARTING_TEXT_POSITION_X) {
-                    lineNumbers.put(calcLineNumber(currY), runner);
-                    isStartNextLine = false;
-                    prevSpace = null;   // There aren't any spaces in this new line yet
+                if (prevSpace != -1) {
+                    return prevSpace + 1;
                 }
-                text.setX(currX);
-                text.setY(currY);
-                currX += Editor.getTextWidth(text);
-                if (Objects.equals(text.getText(), "\n")) {
-                    currX = STARTING_TEXT_POSITION_X;
-                    currY += LINE_HEIGHT;
-                    isStartNextLine = true;
-                }
-                runner = runner.next;
+                return Character.isLowSurrogate(c) && i - 1 != start ? i - 1 : i;  //a surrogate pair stays on one line
             }
-        }
-    
-    public void writeFile(String outputFileName) {
-        if (sentinel.next == sentinel) {
-            System.out.println("There is nothing to write.");
-            return;
-        }
-        try {
-            FileWriter writer = new FileWriter(outputFileName);
-        
-            Node runner = sentinel.next;
-            while (runner != sentinel) {
-                String toWrite = runner.t.getText();
-                writer.write(toWrite);
-                runner = runner.next;
+            currX += width;
+            i += 1;
+            if (c == '\n') {
+                return i;
             }
-        
-            System.out.println("Successfully saved file to " + outputFileName);
-            writer.close();
-        } catch (IOException ioException) {
-            System.out.println("Error when saving; exception was: " + ioException);
         }
+        return length;
+    }
+
+    public long linesWrapped() {
+        return linesWrapped;
+    }
+
+    public boolean isEmpty() {
+        return text.length() == 0;
+    }
+
+    public PieceTable snapshot() {
+        /* The PieceTable never changes, later edits make a new one. Taking it costs nothing, and other
+         * threads can read it while the document is edited */
+        return text;
     }
 }
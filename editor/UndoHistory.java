@@ -0,0 +1,196 @@
+package editor;
+
+import java.util.ArrayDeque;
+
+/** UndoHistory keeps the edits of one document for undo and redo. Consecutive typing and
+* consecutive deletions are merged into a single edit of a range of text, and the oldest
+* edits are dropped once the history takes up more than its byte budget. */
+public class UndoHistory {
+    public enum Op { INSERT, DELETE, REPLACE }
+
+    /** A range of text that was inserted at or deleted from offset, or put there in place of
+    * replaced. Characters that backspacing puts in front of a deletion are kept last first in
+    * prepended, and moved in front of text in one go when the edit is closed, so a long run of
+    * backspaces costs no more than typing */
+    public static class Edit {
+        private final Op op;
+        private int offset;
+        private final StringBuilder text;
+        private final String replaced;      //empty unless op is REPLACE
+        private StringBuilder prepended;    //null once the edit is closed
+
+        Edit(Op op, int offset, CharSequence text) {
+            this(op, offset, "", text);
+        }
+
+        Edit(Op op, int offset, CharSequence replaced, CharSequence text) {
+            this.op = op;
+            this.offset = offset;
+            this.replaced = replaced.toString();
+            this.text = new StringBuilder(text);
+        }
+
+        private void prepend(CharSequence s) {
+            if (prepended == null) {
+                prepended = new StringBuilder();
+            }
+            for (int i = s.length() - 1; i >= 0; i--) {
+                prepended.append(s.charAt(i));
+            }
+            offset -= s.length();
+        }
+
+        private void close() {
+            if (prepended != null) {
+                text.insert(0, prepended.reverse());
+                prepended = null;
+            }
+        }
+
+        public Op op() {
+            return op;
+        }
+
+        public int offset() {
+            return offset;
+        }
+
+        public String text() {
+            /* The edits handed out by undo and redo are closed */
+            close();
+            return text.toString();
+        }
+
+        public String replaced() {
+            return replaced;
+        }
+
+        public int length() {
+            return text.length() + (prepended == null ? 0 : prepended.length());
+        }
+
+        long bytes() {
+            return EDIT_OVERHEAD + 2L*text.capacity() + 2L*replaced.length() + (prepended == null ? 0 : 2L*prepended.capacity());
+        }
+    }
+
+    private static final long EDIT_OVERHEAD = 64;  //rough size of an Edit and its StringBuilder besides the characters
+    private final ArrayDeque<Edit> undo = new ArrayDeque<Edit>();
+    private final ArrayDeque<Edit> redo = new ArrayDeque<Edit>();
+    private final long byteBudget;
+    private long bytesUsed = 0;
+    private boolean canMerge = false;   //false right after an undo or redo, so the next edit starts a new one
+
+    /** Constructor */
+    public UndoHistory(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    public void recordInsert(int offset, CharSequence inserted) {
+        /* Typing right after the last insert, or after text typed over a selection, extends it until
+         * a newline ends the line that was typed */
+        Edit last = canMerge ? undo.peek() : null;
+        if (last != null && last.op != Op.DELETE && last.offset + last.length() == offset
+                && last.text.charAt(last.length() - 1) != '\n') {
+            bytesUsed -= last.bytes();
+            last.text.append(inserted);
+            bytesUsed += last.bytes();
+        } else {
+            push(new Edit(Op.INSERT, offset, inserted));
+        }
+        trim();
+    }
+
+    public void recordDelete(int offset, CharSequence deleted) {
+        /* Backspacing right before the last deletion extends it */
+        Edit last = canMerge ? undo.peek() : null;
+        if (last != null && last.op == Op.DELETE && offset + deleted.length() == last.offset) {
+            bytesUsed -= last.bytes();
+            last.prepend(deleted);
+            bytesUsed += last.bytes();
+        } else {
+            push(new Edit(Op.DELETE, offset, deleted));
+        }
+        trim();
+    }
+
+    public void recordEdit(Op op, int offset, CharSequence text) {
+        /* Records an edit of its own, like a paste, that typing before or after it is not merged into */
+        push(new Edit(op, offset, text));
+        canMerge = false;
+        trim();
+    }
+
+    public void recordReplace(int offset, CharSequence replaced, CharSequence inserted) {
+        /* Records text put in place of other text, like a paste over a selection, as one edit of its own */
+        push(new Edit(Op.REPLACE, offset, replaced, inserted));
+        canMerge = false;
+        trim();
+    }
+
+    public void recordTypedReplace(int offset, CharSequence replaced, CharSequence typed) {
+        /* Records typing over a selection as one edit, which the typing right after it extends */
+        push(new Edit(Op.REPLACE, offset, replaced, typed));
+        trim();
+    }
+
+    private void push(Edit edit) {
+        close(undo.peek());
+        undo.push(edit);
+        bytesUsed += edit.bytes();
+        canMerge = true;
+    }
+
+    private void close(Edit edit) {
+        /* Closes the edit that stops being merged into, keeping the count of bytes right */
+        if (edit != null) {
+            bytesUsed -= edit.bytes();
+            edit.close();
+            bytesUsed += edit.bytes();
+        }
+    }
+
+    private void trim() {
+        /* Drops the oldest edits while over budget, but always keeps the newest one */
+        while (bytesUsed > byteBudget && undo.size() > 1) {
+            bytesUsed -= undo.removeLast().bytes();
+        }
+        while (bytesUsed > byteBudget && !redo.isEmpty()) {
+            bytesUsed -= redo.removeLast().bytes();
+        }
+    }
+
+    public Edit undo() {
+        /* Returns the edit to be reversed, or null if there is none */
+        canMerge = false;
+        if (undo.isEmpty()) {
+            return null;
+        }
+        Edit edit = undo.pop();
+        close(edit);
+        redo.push(edit);
+        return edit;
+    }
+
+    public Edit redo() {
+        /* Returns the edit to be done again, or null if there is none */
+        canMerge = false;
+        if (redo.isEmpty()) {
+            return null;
+        }
+        Edit edit = redo.pop();
+        undo.push(edit);
+        return edit;
+    }
+
+    public void clearRedo() {
+        for (Edit edit : redo) {
+            bytesUsed -= edit.bytes();
+        }
+        redo.clear();
+    }
+
+    public long bytesUsed() {
+        return bytesUsed;
+    }
+}
@@ -0,0 +1,147 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import java.util.ArrayList;
+
+/** Viewport draws the lines of a TextStorage that are inside the window. Only the visible
+* lines plus a few lines of overscan get a Text, and those Texts are reused while scrolling,
+* so drawing costs the same no matter how long the document is. Without wrapping only the
+* characters of a line that are inside the window are drawn, so the same goes for how long
+* a line is. The selection and the matches of a Finder are highlighted behind the text. */
+public class Viewport {
+    private static final int OVERSCAN = 5;  //lines drawn above and below the window
+    private final TextStorage buffer;
+    private final Finder finder;
+    private final Group root;
+    private final ArrayList<Text> lineTexts;    //lineTexts.get(i) shows the i-th visible line
+    private final ArrayList<Rectangle> highlights;  //selected parts of the visible lines, reused like lineTexts
+    private final ArrayList<Rectangle> matchHighlights; //matches on the visible lines, behind the selection
+    private String fontName;
+    private int fontSize;
+    private Font font;      //made once per font change and shared by every line
+    private double left;    //document x of the left and right edges of the window
+    private double right;
+
+    /** Constructor */
+    public Viewport(TextStorage buffer, Finder finder, Group root) {
+        this.buffer = buffer;
+        this.finder = finder;
+        this.root = root;
+        lineTexts = new ArrayList<Text>();
+        highlights = new ArrayList<Rectangle>();
+        matchHighlights = new ArrayList<Rectangle>();
+    }
+
+    public void render(int scrollX, int scrollOffset, int windowWidth, int windowHeight) {
+        /* Lines are placed at their document position, root is moved by the scroll bar and,
+         * without wrapping, sideways. Runs of lines that were not wrapped yet are wrapped before they are shown */
+        left = scrollX;
+        right = scrollX + windowWidth;
+        double lineHeight = buffer.lineHeight();
+        int first = Math.max(0, (int) (scrollOffset/lineHeight) - OVERSCAN);
+        int last = (int) Math.ceil((scrollOffset + windowHeight)/lineHeight) + OVERSCAN;
+        buffer.layoutLines(first, last);
+        last = Math.min(buffer.lineCount(), last);
+        int needed = Math.max(0, last - first);
+
+        if (buffer.getFontSize() != fontSize || !buffer.getFontName().equals(fontName)) {
+            fontName = buffer.getFontName();
+            fontSize = buffer.getFontSize();
+            font = Font.font(fontName, fontSize);
+            for (Text lineText : lineTexts) {
+                lineText.setFont(font);
+            }
+        }
+        while (lineTexts.size() > needed) {
+            root.getChildren().remove(lineTexts.remove(lineTexts.size() - 1));
+        }
+        while (lineTexts.size() < needed) {
+            Text lineText = new Text();
+            lineText.setTextOrigin(VPos.TOP);
+            lineText.setFont(font);
+            lineTexts.add(lineText);
+            root.getChildren().add(lineText);
+        }
+
+        for (int i = 0; i < needed; i++) {
+            Text lineText = lineTexts.get(i);
+            if (buffer.isWrapping()) {
+                lineText.setText(buffer.getLineText(first + i));
+                lineText.setX(buffer.lineX());
+            } else {
+                int from = buffer.offsetAtX(first + i, left);
+                lineText.setText(buffer.getLineText(first + i, from, buffer.offsetAtX(first + i, right) + 1));
+                lineText.setX(buffer.offsetX(first + i, from));
+            }
+            lineText.setY(buffer.lineY(first + i));
+        }
+        renderMatches(first, last, lineHeight);
+        renderSelection(first, last, lineHeight);
+    }
+
+    public void release() {
+        /* Drops every Text and highlight, for a document that is not shown. The next render makes them again */
+        root.getChildren().removeAll(lineTexts);
+        root.getChildren().removeAll(highlights);
+        root.getChildren().removeAll(matchHighlights);
+        lineTexts.clear();
+        highlights.clear();
+        matchHighlights.clear();
+    }
+
+    private void renderMatches(int first, int last, double lineHeight) {
+        /* The matches of each line are found by binary search, so this costs the same however many there are */
+        int used = 0;
+        int length = finder.patternLength();
+        for (int line = first; line < last && finder.count() > 0; line++) {
+            int lineEnd = buffer.lineEnd(line);
+            for (int i = finder.first(buffer.lineStart(line) - length + 1); i < finder.count() && finder.match(i) < lineEnd; i++) {
+                double[] bounds = buffer.rangeBounds(line, finder.match(i), finder.match(i) + length);
+                if (bounds != null) {
+                    highlight(matchHighlights, used, Color.YELLOW, 0, bounds, buffer.lineY(line), lineHeight);
+                    used += 1;
+                }
+            }
+        }
+        while (matchHighlights.size() > used) {
+            root.getChildren().remove(matchHighlights.remove(matchHighlights.size() - 1));
+        }
+    }
+
+    private void renderSelection(int first, int last, double lineHeight) {
+        /* Only the visible lines are highlighted */
+        int used = 0;
+        for (int line = first; line < last; line++) {
+            double[] bounds = buffer.selectionBounds(line);
+            if (bounds != null) {
+                highlight(highlights, used, Color.LIGHTBLUE, matchHighlights.size(), bounds, buffer.lineY(line), lineHeight);
+                used += 1;
+            }
+        }
+        while (highlights.size() > used) {
+            root.getChildren().remove(highlights.remove(highlights.size() - 1));
+        }
+    }
+
+    private void highlight(ArrayList<Rectangle> pool, int used, Color fill, int depth, double[] bounds, double y, double height) {
+        /* Places the used-th rectangle of pool, making it if needed. New rectangles go behind the text at depth.
+         * They are cut to the window, a highlight on a long line can be far wider */
+        if (used == pool.size()) {
+            Rectangle highlight = new Rectangle();
+            highlight.setFill(fill);
+            pool.add(highlight);
+            root.getChildren().add(depth, highlight);
+        }
+        Rectangle highlight = pool.get(used);
+        double x = Math.max(bounds[0], left);
+        highlight.setX(x);
+        highlight.setY(y);
+        highlight.setWidth(Math.max(0, Math.min(bounds[1], right) - x));
+        highlight.setHeight(height);
+    }
+}